@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sabres.controller;
+
+import android.util.Log;
+
+import com.example.sabres.model.Actor;
+import com.sabres.Sabres;
+import com.sabres.SabresObject;
+import com.sabres.SabresQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bolts.Continuation;
+import bolts.Task;
+
+public class BenchmarkController extends AbstractTestController {
+    private static final String TAG = BenchmarkController.class.getSimpleName();
+    private static final int[] READER_COUNTS = new int[] {8, 16, 32};
+    private static final int QUERIES_PER_READER = 200;
+    private static final int SCHEMA_COLUMNS = 500;
+    private static final int PREFIX_ACTORS = 10000;
+    private static final int PREFIX_QUERIES = 20;
+    private static final String NAME_KEY = "name";
+    private static final String PREFIX = "benchmark actor 0042";
+    private static final String DATE_OF_BIRTH_KEY = "dateOfBirth";
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    public static void begin() {
+        // recorded when this process started, against the schema left by the previous run.
+        Log.i(TAG, "Startup and schema load times of this launch:");
+        Sabres.printStats();
+        Sabres.deleteDatabase().onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                return SabresObject.saveAllInBackground(createActors());
+            }
+        }).onSuccess(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                benchmarkConcurrentReaders();
+                benchmarkStartsWith();
+                benchmarkOr();
+                widenSchema();
+                return null;
+            }
+        }, Task.BACKGROUND_EXECUTOR).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                if (task.isFaulted()) {
+                    Log.e(TAG, "Benchmarks failed", task.getError());
+                } else {
+                    Log.i(TAG, "Benchmarks done");
+                }
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Runs count queries from 8 to 32 concurrent readers. The baseline run adds the two fair
+     * semaphore round trips that every operation used to pay for opening and closing the database.
+     */
+    private static void benchmarkConcurrentReaders() throws Exception {
+        for (int readers : READER_COUNTS) {
+            long baseline = runReaders(readers, new Semaphore(1, true));
+            long referenceCounted = runReaders(readers, null);
+            Log.i(TAG, String.format("%d readers x %d queries: fair semaphore %d ms, " +
+                "reference count %d ms", readers, QUERIES_PER_READER, baseline, referenceCounted));
+        }
+    }
+
+    /**
+     * Runs prefix queries on the Actor name before and after the index advisor created a NOCASE
+     * index for them, and logs the plan of one, which should search the table using the index.
+     */
+    private static void benchmarkStartsWith() throws Exception {
+        List<Actor> actors = new ArrayList<>(PREFIX_ACTORS);
+        for (int i = 0; i < PREFIX_ACTORS; i++) {
+            Actor actor = new Actor();
+            actor.setName(String.format("Benchmark Actor %05d", i));
+            actor.setDateOfBirth(new Date(i * DAY_MILLIS));
+            actors.add(actor);
+        }
+
+        SabresObject.saveAll(actors);
+        long scan = runStartsWith();
+        // the advisor creates the index on the writer lane, after the queries it has recorded.
+        Thread.sleep(15000);
+        long search = runStartsWith();
+        Log.i(TAG, String.format("%d prefix queries over %d actors: without index %d ms, " +
+            "with index %d ms", PREFIX_QUERIES, PREFIX_ACTORS, scan, search));
+
+        Sabres.setSlowQueryThreshold(0);
+        SabresQuery.getQuery(Actor.class).whereStartsWith(NAME_KEY, PREFIX).find();
+        Sabres.setSlowQueryThreshold(-1);
+    }
+
+    private static long runStartsWith() throws Exception {
+        long begin = System.nanoTime();
+        for (int i = 0; i < PREFIX_QUERIES; i++) {
+            SabresQuery.getQuery(Actor.class).whereStartsWith(NAME_KEY, PREFIX).find();
+        }
+
+        return (System.nanoTime() - begin) / 1000000;
+    }
+
+    /**
+     * Runs an or of conditions on two different columns over the actors of the prefix
+     * benchmark, before and after the index advisor created an index for each of them, and logs
+     * the plan of one. An or chain of such conditions scans the whole table, the union of the
+     * object ids of each condition should search each index instead.
+     */
+    private static void benchmarkOr() throws Exception {
+        long scan = runOr();
+        // the advisor creates the indices on the writer lane, after the queries it has recorded.
+        Thread.sleep(15000);
+        long search = runOr();
+        Log.i(TAG, String.format("%d or queries over %d actors: without indices %d ms, " +
+            "with indices %d ms", PREFIX_QUERIES, PREFIX_ACTORS, scan, search));
+
+        Sabres.setSlowQueryThreshold(0);
+        createOrQuery().find();
+        Sabres.setSlowQueryThreshold(-1);
+    }
+
+    private static long runOr() throws Exception {
+        long begin = System.nanoTime();
+        for (int i = 0; i < PREFIX_QUERIES; i++) {
+            createOrQuery().find();
+        }
+
+        return (System.nanoTime() - begin) / 1000000;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SabresQuery<Actor> createOrQuery() {
+        return SabresQuery.or(Arrays.asList(
+            SabresQuery.getQuery(Actor.class).whereEqualTo(NAME_KEY, "Benchmark Actor 00042"),
+            SabresQuery.getQuery(Actor.class).whereEqualTo(DATE_OF_BIRTH_KEY,
+                new Date(77 * DAY_MILLIS))));
+    }
+
+    /**
+     * Leaves a schema of SCHEMA_COLUMNS columns behind, so the next launch measures startup
+     * against it. Startup no longer reads the schema table, so it should not grow with the
+     * schema, while the schema load of the first Actor query does.
+     */
+    private static void widenSchema() throws Exception {
+        Actor actor = new Actor();
+        for (int i = 0; i < SCHEMA_COLUMNS; i++) {
+            actor.put(String.format("benchmark%d", i), i);
+        }
+
+        actor.save();
+        Log.i(TAG, String.format("Saved an Actor with %d extra columns. Restart the app and run " +
+            "the benchmarks again to compare startup time", SCHEMA_COLUMNS));
+    }
+
+    private static long runReaders(int readers, final Semaphore semaphore) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(readers);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        for (int i = 0; i < readers; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < QUERIES_PER_READER; j++) {
+                            roundTrip(semaphore);
+                            SabresQuery.getQuery(Actor.class).count();
+                            roundTrip(semaphore);
+                        }
+                    } catch (Exception e) {
+                        error.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = (System.nanoTime() - begin) / 1000000;
+        if (error.get() != null) {
+            throw error.get();
+        }
+
+        return elapsed;
+    }
+
+    private static void roundTrip(Semaphore semaphore) throws InterruptedException {
+        if (semaphore != null) {
+            semaphore.acquire();
+            semaphore.release();
+        }
+    }
+}
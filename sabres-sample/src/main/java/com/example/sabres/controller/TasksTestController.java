@@ -21,12 +21,14 @@ import android.util.Log;
 import com.example.sabres.model.Actor;
 import com.example.sabres.model.Movie;
 import com.sabres.Sabres;
+import com.sabres.SabresException;
 import com.sabres.SabresObject;
 import com.sabres.SabresQuery;
 
 import junit.framework.Assert;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -37,6 +39,8 @@ import bolts.Task;
 
 public class TasksTestController extends AbstractTestController {
     private static final String TAG = TasksTestController.class.getSimpleName();
+    private static final int PAGING_ACTORS = 10;
+    private static final int PAGE_SIZE = 3;
 
     public static void begin() {
         checkNonDatabaseApi();
@@ -50,6 +54,21 @@ public class TasksTestController extends AbstractTestController {
             public Task<Void> then(Task<Void> task) throws Exception {
                 return checkQueries();
             }
+        }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                return checkKeysetPaging();
+            }
+        }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                return checkStartsWith();
+            }
+        }).onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                return checkResultCache();
+            }
         }).continueWith(new Continuation<Void, Void>() {
             @Override
             public Void then(Task<Void> task) throws Exception {
@@ -117,6 +136,184 @@ public class TasksTestController extends AbstractTestController {
         });
     }
 
+    private static Task<Void> checkKeysetPaging() {
+        Log.i(TAG, "checkKeysetPaging start");
+        return Sabres.deleteDatabase().onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                Log.i(TAG, "checkKeysetPaging: deleteDatabase successful");
+                return SabresObject.saveAllInBackground(createPagingActors());
+            }
+        }).onSuccess(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                Log.i(TAG, "checkKeysetPaging: saveAllInBackground successful");
+                checkPages(true);
+                checkPages(false);
+                Log.i(TAG, "checkKeysetPaging successful");
+                return null;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+    }
+
+    // ties and nulls of the order key, which pages must neither repeat nor skip.
+    private static List<Actor> createPagingActors() {
+        final Date[] dates = new Date[] {Actor.BradPitt.DATE_OF_BIRTH, null,
+            Actor.TimRoth.DATE_OF_BIRTH, Actor.BradPitt.DATE_OF_BIRTH, null,
+            Actor.TimRoth.DATE_OF_BIRTH, Actor.HarveyKeitel.DATE_OF_BIRTH,
+            Actor.BradPitt.DATE_OF_BIRTH, null, Actor.TimRoth.DATE_OF_BIRTH};
+        List<Actor> actors = new ArrayList<>();
+        for (int i = 0; i < dates.length; i++) {
+            Actor actor = new Actor();
+            actor.setName(String.format("Actor %d", i));
+            if (dates[i] != null) {
+                actor.setDateOfBirth(dates[i]);
+            }
+            actors.add(actor);
+        }
+        return actors;
+    }
+
+    private static SabresQuery<Actor> createPagingQuery(boolean ascending) {
+        SabresQuery<Actor> query = SabresQuery.getQuery(Actor.class);
+        return ascending ? query.addAscendingOrder(Actor.getDateOfBirthKey()) :
+            query.addDescendingOrder(Actor.getDateOfBirthKey());
+    }
+
+    private static void checkPages(boolean ascending) throws SabresException {
+        List<Actor> expected = createPagingQuery(ascending).find();
+        Assert.assertEquals(PAGING_ACTORS, expected.size());
+        // nulls sort first.
+        Assert.assertEquals(ascending, expected.get(0).getDateOfBirth() == null);
+        Assert.assertEquals(!ascending,
+            expected.get(expected.size() - 1).getDateOfBirth() == null);
+
+        List<Actor> paged = new ArrayList<>();
+        Actor last = null;
+        for (;;) {
+            List<Actor> page = createPagingQuery(ascending).setLimit(PAGE_SIZE).after(last).
+                find();
+            if (page.isEmpty()) {
+                break;
+            }
+
+            Assert.assertTrue(page.size() <= PAGE_SIZE);
+            paged.addAll(page);
+            last = page.get(page.size() - 1);
+            if (last.getDateOfBirth() == null) {
+                // a fetched object does not hold a key that is null in the database.
+                last.setDateOfBirth(null);
+            }
+        }
+
+        Assert.assertEquals(getIds(expected), getIds(paged));
+        Log.i(TAG, String.format("checkPages %s successful", ascending ? "ascending" :
+            "descending"));
+    }
+
+    private static List<Long> getIds(List<Actor> actors) {
+        List<Long> ids = new ArrayList<>(actors.size());
+        for (Actor actor : actors) {
+            ids.add(actor.getObjectId());
+        }
+        return ids;
+    }
+
+    private static Task<Void> checkStartsWith() {
+        Log.i(TAG, "checkStartsWith start");
+        return Sabres.deleteDatabase().onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                Log.i(TAG, "checkStartsWith: deleteDatabase successful");
+                return SabresObject.saveAllInBackground(createActors());
+            }
+        }).onSuccess(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                Log.i(TAG, "checkStartsWith: saveAllInBackground successful");
+                Assert.assertEquals(2, countStartsWith("B", true));
+                Assert.assertEquals(0, countStartsWith("b", true));
+                Assert.assertEquals(2, countStartsWith("b", false));
+                Assert.assertEquals(1, countStartsWith("hE", false));
+                Assert.assertEquals(1, countStartsWith(Actor.TimRoth.NAME, true));
+                Assert.assertEquals(0, countStartsWith(Actor.TimRoth.NAME + " ", true));
+                Assert.assertEquals(1, countStartsWith("T", true));
+                // every actor with a name, the bound of an empty prefix is open.
+                Assert.assertEquals(createActors().size(), countStartsWith("", false));
+                // matched as they are, not as patterns.
+                Assert.assertEquals(0, countStartsWith("Br_d", false));
+                Assert.assertEquals(0, countStartsWith("%", false));
+
+                // a number has no text affinity, its text is matched instead of a range.
+                Movie movie = MovieController.createFightClub();
+                movie.save();
+                Assert.assertEquals(1, SabresQuery.getQuery(Movie.class).
+                    whereStartsWith(Movie.getYearKey(), "199").count());
+                Assert.assertEquals(0, SabresQuery.getQuery(Movie.class).
+                    whereStartsWith(Movie.getYearKey(), "19_9").count());
+                movie.delete();
+                Log.i(TAG, "checkStartsWith successful");
+                return null;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+    }
+
+    private static long countStartsWith(String prefix, boolean caseSensitive)
+        throws SabresException {
+        return SabresQuery.getQuery(Actor.class).
+            whereStartsWith(Actor.getNameKey(), prefix, caseSensitive).count();
+    }
+
+    private static Task<Void> checkResultCache() {
+        Log.i(TAG, "checkResultCache start");
+        return Sabres.deleteDatabase().onSuccessTask(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> task) throws Exception {
+                Log.i(TAG, "checkResultCache: deleteDatabase successful");
+                return SabresObject.saveAllInBackground(createActors());
+            }
+        }).onSuccess(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                Log.i(TAG, "checkResultCache: saveAllInBackground successful");
+                final long count = SabresQuery.getQuery(Actor.class).count();
+                List<Actor> found = findByName(Actor.BradPitt.NAME);
+                Assert.assertEquals(1, found.size());
+                // served from the cache.
+                Assert.assertEquals(1, findByName(Actor.BradPitt.NAME).size());
+
+                Actor actor = found.get(0);
+                actor.setName(Actor.BradPitt.NAME.toUpperCase());
+                actor.save();
+                Assert.assertEquals(0, findByName(Actor.BradPitt.NAME).size());
+                Assert.assertEquals(1, findByName(Actor.BradPitt.NAME.toUpperCase()).size());
+                Assert.assertTrue(Arrays.asList(SabresQuery.getQuery(Actor.class).
+                    findStrings(Actor.getNameKey())).contains(actor.getName()));
+
+                Actor added = ActorController.createBradPitt();
+                added.save();
+                Assert.assertEquals(count + 1, SabresQuery.getQuery(Actor.class).count());
+                Assert.assertEquals(1, findByName(Actor.BradPitt.NAME).size());
+
+                added.delete();
+                Assert.assertEquals(count, SabresQuery.getQuery(Actor.class).count());
+                Assert.assertEquals(0, findByName(Actor.BradPitt.NAME).size());
+
+                // a write to another table keeps the results of this one.
+                Movie movie = MovieController.createFightClub();
+                movie.save();
+                Assert.assertEquals(count, SabresQuery.getQuery(Actor.class).count());
+                movie.delete();
+                Log.i(TAG, "checkResultCache successful");
+                return null;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+    }
+
+    private static List<Actor> findByName(String name) throws SabresException {
+        return SabresQuery.getQuery(Actor.class).whereEqualTo(Actor.getNameKey(), name).find();
+    }
+
     private static Task<Void> checkBulkOperations() {
         final Capture<Integer> actorCountCapture = new Capture<>();
         final List<Actor> actors = new ArrayList<>();
@@ -33,7 +33,10 @@ public class SabresApplication extends Application {
         SabresObject.registerSubclass(Movie.class);
         SabresObject.registerSubclass(Actor.class);
         Sabres.setDebug(true);
-        Sabres.initialize(this);
+        // the tests check that writes invalidate cached results.
+        Sabres.initialize(this, new Sabres.Configuration.Builder().
+            resultCache(64, 1024 * 1024).
+            build());
 
     }
 }
@@ -8,6 +8,7 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.example.sabres.R;
+import com.example.sabres.controller.BenchmarkController;
 import com.example.sabres.controller.CallbacksTestController;
 import com.example.sabres.controller.TasksTestController;
 import com.example.sabres.model.Actor;
@@ -99,4 +100,9 @@ public class SabresFragment extends Fragment {
     public void onClickBasicTestsWithCallbacks() {
         CallbacksTestController.begin();
     }
+
+    @OnClick(R.id.button_benchmarks)
+    public void onClickBenchmarks() {
+        BenchmarkController.begin();
+    }
 }
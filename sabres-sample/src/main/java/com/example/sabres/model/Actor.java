@@ -25,6 +25,14 @@ public class Actor extends SabresObject {
     private static final String NAME_KEY = "name";
     private static final String DATE_OF_BIRTH_KEY = "dateOfBirth";
 
+    public static String getNameKey() {
+        return NAME_KEY;
+    }
+
+    public static String getDateOfBirthKey() {
+        return DATE_OF_BIRTH_KEY;
+    }
+
     public String getName() {
         return getString(NAME_KEY);
     }
@@ -37,6 +37,10 @@ public class Movie extends SabresObject {
     private static final String NOMINATIONS_KEY = "nominations";
     private static final String TIMES_WATCHED_KEY = "timesWatched";
 
+    public static String getYearKey() {
+        return YEAR_KEY;
+    }
+
     public static Task<List<Movie>> findWithTitleInBackground(String title) {
         SabresQuery<Movie> q = SabresQuery.getQuery(Movie.class);
         q.whereEqualTo(TITLE_KEY, title);
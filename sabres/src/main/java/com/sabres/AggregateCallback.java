@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+/**
+ * An AggregateCallback is used to run code after a SabresQuery computed an aggregate, such as
+ * a sum or an average, in a background thread.
+ * <p>
+ * The easiest way to use an AggregateCallback is through an anonymous inner class.
+ * Override the done function to specify what the callback should do after the aggregate is
+ * complete. The done function will be run in the UI thread, while the aggregate is computed in
+ * a background thread.
+ * <p>
+ * For example, this sample code sums the price of objects of class "MyClass".
+ *
+ * <pre>
+ * {@code
+ * SabresQuery<MyClass> query = SabresQuery.getQuery(MyClass.class);
+ * query.sumInBackground("price", new AggregateCallback<Number>() {
+ *     public void done(Number sum, SabresException e) {
+ *         if (e == null) {
+ *             sumWasComputedSuccessfully(sum);
+ *         } else {
+ *             sumFailed();
+ *         }
+ *     }
+ * });
+ * }
+ * </pre>
+ */
+public interface AggregateCallback<V> {
+    /**
+     * Override this function with the code you want to run after the aggregate is complete.
+     *
+     * @param value The aggregate, or null if it did not succeed.
+     * @param e     The exception raised by the aggregate, or null if it succeeded.
+     */
+    void done(V value, SabresException e);
+}
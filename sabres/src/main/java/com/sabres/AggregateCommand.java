@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+final class AggregateCommand {
+    private static final String VALUE_KEY = "_value";
+    private static final String GROUP_KEY = "_group";
+    private final String table;
+    private final SqlFunction function;
+    private String groupBy;
+    private Where where;
+    private SelectCommand innerSelect;
+    private String outerKey;
+
+    AggregateCommand(String table, SqlFunction function) {
+        this.table = table;
+        this.function = function;
+    }
+
+    static String getValueKey() {
+        return VALUE_KEY;
+    }
+
+    static String getGroupKey() {
+        return GROUP_KEY;
+    }
+
+    AggregateCommand groupBy(String key) {
+        this.groupBy = key;
+        return this;
+    }
+
+    AggregateCommand where(Where where) {
+        this.where = where;
+        return this;
+    }
+
+    AggregateCommand inInnerSelect(SelectCommand innerSelect, String key) {
+        this.innerSelect = innerSelect;
+        this.outerKey = key;
+        return this;
+    }
+
+    Set<String> getTables() {
+        Set<String> tables = new HashSet<>();
+        tables.add(table);
+        if (where != null) {
+            tables.addAll(where.getTables());
+        }
+
+        if (innerSelect != null) {
+            tables.addAll(innerSelect.getTables());
+        }
+
+        return tables;
+    }
+
+    @Override
+    public String toString() {
+        return toSql();
+    }
+
+    String toSql() {
+        return build(new ArrayList<SabresValue>());
+    }
+
+    SabresValue[] getArgs() {
+        List<SabresValue> args = new ArrayList<>();
+        build(args);
+        return args.toArray(new SabresValue[args.size()]);
+    }
+
+    private String build(List<SabresValue> args) {
+        StringBuilder sb = new StringBuilder("SELECT ");
+        if (groupBy != null) {
+            sb.append(String.format("%s AS %s, ", groupBy, GROUP_KEY));
+        }
+
+        sb.append(String.format("%s AS %s FROM %s", function.toSql(), VALUE_KEY, table));
+
+        if (where != null) {
+            sb.append(String.format(" WHERE %s", where.toSql()));
+            args.addAll(where.getArgs());
+        }
+
+        if (innerSelect != null) {
+            sb.append(where == null ? " WHERE " : " AND ");
+            sb.append(String.format("%s IN (%s)", outerKey, innerSelect.toSql()));
+            args.addAll(Arrays.asList(innerSelect.getArgs()));
+        }
+
+        if (groupBy != null) {
+            sb.append(String.format(" GROUP BY %s", groupBy));
+        }
+
+        return sb.append(";").toString();
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 final class BooleanValue extends SabresValue<Boolean> {
 
     BooleanValue(Boolean value) {
@@ -27,6 +29,11 @@ final class BooleanValue extends SabresValue<Boolean> {
         return getValue() ? "1" : "0";
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        program.bindLong(index, getValue() ? 1 : 0);
+    }
+
     @Override
     public String toString() {
         return getValue().toString();
@@ -16,6 +16,8 @@
 
 package com.sabres;
 
+import java.util.List;
+
 final class CountCommand {
     private final String table;
     private Where where;
@@ -39,6 +41,15 @@ final class CountCommand {
         return sb.append(";").toString();
     }
 
+    SabresValue[] getArgs() {
+        if (where == null) {
+            return new SabresValue[0];
+        }
+
+        List<SabresValue> args = where.getArgs();
+        return args.toArray(new SabresValue[args.size()]);
+    }
+
     @Override
     public String toString() {
         return toSql();
@@ -23,12 +23,18 @@ final class CreateIndexCommand {
     private final String name;
     private final List<String> keys;
     private boolean ifNotExists = false;
+    private String indexName;
 
     CreateIndexCommand(String name, List<String> keys) {
         this.name = name;
         this.keys = keys;
     }
 
+    CreateIndexCommand withName(String indexName) {
+        this.indexName = indexName;
+        return this;
+    }
+
     CreateIndexCommand ifNotExists() {
         ifNotExists = true;
         return this;
@@ -39,6 +45,30 @@ final class CreateIndexCommand {
         return toSql();
     }
 
+    String getTable() {
+        return name;
+    }
+
+    String getIndexName() {
+        if (this.indexName != null) {
+            return this.indexName;
+        }
+
+        final StringBuilder indexName = new StringBuilder(INDEX_NAME_PREFIX);
+        boolean first = true;
+        for (String key : keys) {
+            if (!first) {
+                indexName.append("_");
+            } else {
+                first = false;
+            }
+
+            indexName.append(key);
+        }
+
+        return indexName.toString();
+    }
+
     String toSql() {
         final StringBuilder sb = new StringBuilder("CREATE ");
 
@@ -49,23 +79,20 @@ final class CreateIndexCommand {
         }
 
         final StringBuilder columns = new StringBuilder();
-        final StringBuilder indexName = new StringBuilder(INDEX_NAME_PREFIX);
 
         boolean first = true;
 
         for (String key : keys) {
             if (!first) {
-                indexName.append("_");
                 columns.append(", ");
             } else {
                 first = false;
             }
 
-            indexName.append(key);
             columns.append(key);
         }
 
-        sb.append(String.format("%s ON %s(%s);", indexName.toString(), name, columns.toString()));
+        sb.append(String.format("%s ON %s(%s);", getIndexName(), name, columns.toString()));
 
         return sb.toString();
     }
@@ -25,16 +25,31 @@ final class CreateTableCommand {
     private final List<String[]> uniqueColumns = new ArrayList<>();
     private ConflictResolution resolution;
     private boolean ifNotExists = false;
+    private String module;
+    private String[] moduleArguments;
 
     CreateTableCommand(String name) {
         this.name = name;
     }
 
+    String getName() {
+        return name;
+    }
+
     CreateTableCommand ifNotExists() {
         ifNotExists = true;
         return this;
     }
 
+    /**
+     * Creates a virtual table of the module, such as fts4, instead of a regular table.
+     */
+    CreateTableCommand using(String module, String... arguments) {
+        this.module = module;
+        this.moduleArguments = arguments;
+        return this;
+    }
+
     CreateTableCommand withConflictResolution(ConflictResolution resolution) {
         this.resolution = resolution;
         return this;
@@ -56,13 +71,19 @@ final class CreateTableCommand {
     }
 
     String toSql() {
-        final StringBuilder sb = new StringBuilder("CREATE TABLE ");
+        final StringBuilder sb = new StringBuilder(module == null ? "CREATE TABLE " :
+            "CREATE VIRTUAL TABLE ");
 
         if (ifNotExists) {
             sb.append("IF NOT EXISTS ");
         }
 
-        sb.append(name).append("(");
+        sb.append(name);
+        if (module != null) {
+            sb.append(" USING ").append(module);
+        }
+
+        sb.append("(");
 
         boolean first = true;
         for (Column column : columns) {
@@ -92,6 +113,12 @@ final class CreateTableCommand {
             }
         }
 
+        if (moduleArguments != null) {
+            for (String argument : moduleArguments) {
+                sb.append(", ").append(argument);
+            }
+        }
+
         if (resolution != null) {
             sb.append(String.format(" %s", resolution.toString()));
         }
@@ -15,6 +15,8 @@
  */
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 import java.util.Date;
 
 final class DateValue extends SabresValue<Date> {
@@ -28,6 +30,11 @@ final class DateValue extends SabresValue<Date> {
         return String.valueOf(getValue().getTime());
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        program.bindLong(index, getValue().getTime());
+    }
+
     @Override
     public String toString() {
         return getValue().toString();
@@ -16,12 +16,19 @@
 
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 final class DoubleValue extends NumberValue<Double> {
 
     DoubleValue(Double value) {
         super(value);
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        program.bindDouble(index, getValue());
+    }
+
     @Override
     void increment(Number amount) {
         setValue(getValue() + amount.doubleValue());
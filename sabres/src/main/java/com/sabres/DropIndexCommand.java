@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+final class DropIndexCommand {
+    private final String table;
+    private final String name;
+    private boolean ifExists;
+
+    DropIndexCommand(String table, String name) {
+        this.table = table;
+        this.name = name;
+    }
+
+    String getTable() {
+        return table;
+    }
+
+    String getIndexName() {
+        return name;
+    }
+
+    DropIndexCommand ifExists() {
+        this.ifExists = true;
+        return this;
+    }
+
+    String toSql() {
+        StringBuilder sb = new StringBuilder("DROP INDEX ");
+        if (ifExists) {
+            sb.append("IF EXISTS ");
+        }
+        sb.append(String.format("%s;", name));
+
+        return sb.toString();
+    }
+}
@@ -8,6 +8,10 @@ final class DropTableCommand {
         this.table = table;
     }
 
+    String getTable() {
+        return table;
+    }
+
     String toSql() {
         StringBuilder sb = new StringBuilder("DROP TABLE ");
         if (ifExists) {
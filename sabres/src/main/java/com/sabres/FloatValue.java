@@ -16,12 +16,20 @@
 
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 final class FloatValue extends NumberValue<Float> {
 
     FloatValue(Float value) {
         super(value);
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        // widen through the decimal representation, to store the same value toSql() would.
+        program.bindDouble(index, Double.parseDouble(toSql()));
+    }
+
     @Override
     void increment(Number amount) {
         setValue(getValue() + amount.floatValue());
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Full text indices of String keys, each in an fts virtual table whose docid is the object id.
+ * <p>
+ * The tables are kept in sync with every insert, update and delete of their objects, and are
+ * created and filled from the existing objects when the key is first enabled.
+ */
+final class FullTextIndex {
+    private static final String TAG = FullTextIndex.class.getSimpleName();
+    private static final String TABLE_SUFFIX = "fts";
+    private static final String DOCID_KEY = "docid";
+    // a name that is not likely to be a key, keys of the object are not ambiguous in a join.
+    private static final String TEXT_KEY = "_text";
+    private static final Map<String, Set<String>> keys = new ConcurrentHashMap<>();
+
+    private FullTextIndex() {
+    }
+
+    static void enable(String name, String key) {
+        Set<String> enabled = keys.get(name);
+        if (enabled == null) {
+            enabled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            keys.put(name, enabled);
+        }
+
+        enabled.add(key);
+    }
+
+    static boolean isEnabled(String name, String key) {
+        Set<String> enabled = keys.get(name);
+        return enabled != null && enabled.contains(key);
+    }
+
+    static String getTableName(String name, String key) {
+        return String.format("%s_%s_%s", name, key, TABLE_SUFFIX);
+    }
+
+    /**
+     * Creates the indices of keys enabled since the last launch.
+     */
+    static void initialize(Sabres sabres) throws SabresException {
+        for (String name : keys.keySet()) {
+            if (SqliteMaster.tableExists(sabres, name)) {
+                create(sabres, name);
+            }
+        }
+    }
+
+    /**
+     * Creates the missing indices of the object's enabled keys, from the objects that are
+     * already saved. Keys that are not in the schema yet, or are not strings, are skipped.
+     */
+    static void create(Sabres sabres, String name) throws SabresException {
+        Set<String> enabled = keys.get(name);
+        if (enabled == null) {
+            return;
+        }
+
+        for (String key : enabled) {
+            final String table = getTableName(name, key);
+            if (SqliteMaster.tableExists(sabres, table)) {
+                continue;
+            }
+
+            SabresDescriptor descriptor = Schema.getDescriptor(sabres, name, key);
+            if (descriptor == null) {
+                continue;
+            }
+
+            if (!descriptor.getType().equals(SabresDescriptor.Type.String)) {
+                Log.w(TAG, String.format("Cannot index key %s of type %s in Object %s", key,
+                    descriptor.toString(), name));
+                continue;
+            }
+
+            // fts4 came with sqlite 3.7.4. Its prefix indices make type-ahead queries cheap.
+            CreateTableCommand command = new CreateTableCommand(table).
+                withColumn(new Column(TEXT_KEY, SqlType.Text));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                command.using("fts4", "prefix=\"2,3\"");
+            } else {
+                command.using("fts3");
+            }
+
+            sabres.beginTransaction();
+            try {
+                SqliteMaster.createTable(sabres, command);
+                sabres.execSQL(String.format(
+                    "INSERT INTO %s(%s, %s) SELECT %s, %s FROM %s WHERE %s IS NOT NULL;", table,
+                    DOCID_KEY, TEXT_KEY, SabresObject.getObjectIdKey(), key, name, key));
+                sabres.setTransactionSuccessful();
+            } finally {
+                sabres.endTransaction();
+            }
+        }
+    }
+
+    static void drop(Sabres sabres, String name) throws SabresException {
+        Set<String> enabled = keys.get(name);
+        if (enabled == null) {
+            return;
+        }
+
+        for (String key : enabled) {
+            SqliteMaster.dropTable(sabres, new DropTableCommand(getTableName(name, key)).
+                ifExists());
+        }
+    }
+
+    static void insert(Sabres sabres, String name, long id, Map<String, SabresValue> values)
+        throws SabresException {
+        Set<String> enabled = keys.get(name);
+        if (enabled == null) {
+            return;
+        }
+
+        for (String key : enabled) {
+            insert(sabres, name, key, id, values.get(key));
+        }
+    }
+
+    /**
+     * @param values the values that changed.
+     */
+    static void update(Sabres sabres, String name, long id, Map<String, SabresValue> values)
+        throws SabresException {
+        Set<String> enabled = keys.get(name);
+        if (enabled == null) {
+            return;
+        }
+
+        for (String key : enabled) {
+            if (values.containsKey(key) &&
+                SqliteMaster.tableExists(sabres, getTableName(name, key))) {
+                delete(sabres, name, key, id);
+                insert(sabres, name, key, id, values.get(key));
+            }
+        }
+    }
+
+    static void delete(Sabres sabres, String name, long id) throws SabresException {
+        Set<String> enabled = keys.get(name);
+        if (enabled == null) {
+            return;
+        }
+
+        for (String key : enabled) {
+            if (SqliteMaster.tableExists(sabres, getTableName(name, key))) {
+                delete(sabres, name, key, id);
+            }
+        }
+    }
+
+    /**
+     * @return a condition on the object id, for queries that do not join the index.
+     */
+    static Where matches(String name, String key, String query) {
+        return Where.matches(SabresObject.getObjectIdKey(), getTableName(name, key), query);
+    }
+
+    /**
+     * The number of matches of the query in each row of a joined index. offsets() lists four
+     * numbers for every match, so the number of spaces in it grows with the matches.
+     */
+    static String getRelevance(String table) {
+        return String.format("length(offsets(%1$s)) - length(replace(offsets(%1$s), ' ', ''))",
+            table);
+    }
+
+    private static void insert(Sabres sabres, String name, String key, long id,
+        SabresValue value) throws SabresException {
+        final String table = getTableName(name, key);
+        if (!(value instanceof StringValue) || !SqliteMaster.tableExists(sabres, table)) {
+            return;
+        }
+
+        Map<String, SabresValue> values = new HashMap<>();
+        values.put(DOCID_KEY, new LongValue(id));
+        values.put(TEXT_KEY, value);
+        InsertCommand command = new InsertCommand(table, values);
+        sabres.insert(command.toSql(), command.getArgs());
+    }
+
+    private static void delete(Sabres sabres, String name, String key, long id)
+        throws SabresException {
+        DeleteCommand command = new DeleteCommand(getTableName(name, key)).
+            where(Where.equalTo(DOCID_KEY, new LongValue(id)));
+        sabres.executeUpdateDelete(command.toSql(), command.getArgs());
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates composite indices for the query shapes the application actually runs.
+ * <p>
+ * A shape is the table with the where keys of a query followed by its order by keys. Every
+ * query records its shape and latency. Once a shape runs often enough, or slowly enough, an
+ * index is created for it on the writer thread, unless an existing automatic index already
+ * starts with its keys. Automatic indices made redundant by a longer one are dropped, as are
+ * indices that were not used for a number of days. Statistics are kept in an internal table,
+ * so decisions survive restarts.
+ */
+final class IndexAdvisor {
+    private static final String TAG = IndexAdvisor.class.getSimpleName();
+    private static final String TABLE_NAME = "_sabres_index_stats";
+    private static final String TABLE_KEY = "_table";
+    private static final String COLUMNS_KEY = "_columns";
+    private static final String COUNT_KEY = "_count";
+    private static final String TOTAL_NANOS_KEY = "_totalNanos";
+    private static final String LAST_USED_KEY = "_lastUsed";
+    private static final String INDEXED_KEY = "_indexed";
+    private static final String[] selectKeys = new String[] {TABLE_KEY, COLUMNS_KEY, COUNT_KEY,
+        TOTAL_NANOS_KEY, LAST_USED_KEY, INDEXED_KEY};
+    private static final String INDEX_NAME_PREFIX = "sabres_auto_";
+    private static final int INDEX_NAME_DIGEST_BYTES = 8;
+    // the default name of CreateIndexCommand, which queries used to create an index under for
+    // every set of where keys they ran with.
+    private static final String QUERY_INDEX_NAME_PREFIX = "index_on_";
+    private static final long FLUSH_DELAY_MILLIS = 10000;
+    // a single slow query is not enough to create an index for.
+    private static final int MIN_LATENCY_SAMPLES = 3;
+    private final int minQueries;
+    private final long minAverageNanos;
+    private final long unusedMillis;
+    private final Map<String, Shape> shapes = new HashMap<>();
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private boolean flushScheduled = false;
+    private boolean createScheduled = false;
+    private Sabres sabres;
+
+    IndexAdvisor(int minQueries, long minAverageMillis, int unusedDays) {
+        this.minQueries = minQueries;
+        this.minAverageNanos = TimeUnit.MILLISECONDS.toNanos(minAverageMillis);
+        this.unusedMillis = TimeUnit.DAYS.toMillis(unusedDays);
+    }
+
+    static String getTableName() {
+        return TABLE_NAME;
+    }
+
+    void initialize(Sabres sabres) throws SabresException {
+        this.sabres = sabres;
+        synchronized (this) {
+            shapes.clear();
+        }
+
+        dropQueryIndices();
+        if (!SqliteMaster.tableExists(sabres, TABLE_NAME)) {
+            SqliteMaster.createTable(sabres, new CreateTableCommand(TABLE_NAME).ifNotExists().
+                withColumn(new Column(TABLE_KEY, SqlType.Text).notNull()).
+                withColumn(new Column(COLUMNS_KEY, SqlType.Text).notNull()).
+                withColumn(new Column(COUNT_KEY, SqlType.Integer).notNull()).
+                withColumn(new Column(TOTAL_NANOS_KEY, SqlType.Integer).notNull()).
+                withColumn(new Column(LAST_USED_KEY, SqlType.Integer).notNull()).
+                withColumn(new Column(INDEXED_KEY, SqlType.Integer).notNull()).
+                unique(new String[] {TABLE_KEY, COLUMNS_KEY}).
+                withConflictResolution(CreateTableCommand.ConflictResolution.REPLACE));
+            return;
+        }
+
+        Cursor c = null;
+        try {
+            SelectCommand command = new SelectCommand(TABLE_NAME, Arrays.asList(selectKeys));
+            c = sabres.select(command.toSql(), command.getArgs());
+            synchronized (this) {
+                for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                    Shape shape = new Shape(CursorHelper.getString(c, TABLE_KEY),
+                        Arrays.asList(CursorHelper.getString(c, COLUMNS_KEY).split(",")));
+                    shape.count = CursorHelper.getLong(c, COUNT_KEY);
+                    shape.totalNanos = CursorHelper.getLong(c, TOTAL_NANOS_KEY);
+                    shape.lastUsed = CursorHelper.getLong(c, LAST_USED_KEY);
+                    shape.indexed = CursorHelper.getBoolean(c, INDEXED_KEY);
+                    shapes.put(shape.getKey(), shape);
+                }
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        update();
+    }
+
+    /**
+     * Drops the indices that queries created before the advisor, left by an earlier version on
+     * an existing database. Each slows down every write to its table, the advisor creates the
+     * ones that queries still need. The schema and list tables index their own keys under the
+     * same name, those are kept.
+     */
+    private void dropQueryIndices() throws SabresException {
+        for (Map.Entry<String, String> entry : SqliteMaster.getIndexTables(sabres).entrySet()) {
+            final String index = entry.getKey();
+            final String table = entry.getValue();
+            if (index.startsWith(QUERY_INDEX_NAME_PREFIX) &&
+                !table.equals(Schema.getTableName()) &&
+                !table.startsWith(SabresList.getPrefix())) {
+                Log.i(TAG, String.format("Dropping query index %s", index));
+                SqliteMaster.dropIndex(sabres, new DropIndexCommand(table, index).ifExists());
+            }
+        }
+    }
+
+    /**
+     * Records a query on the table that filtered by, then sorted by, the given columns.
+     */
+    void record(String table, List<String> columns, long elapsedNanos) {
+        if (columns.isEmpty()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        boolean create = false;
+        synchronized (this) {
+            final String key = Shape.getKey(table, columns);
+            Shape shape = shapes.get(key);
+            if (shape == null) {
+                shape = new Shape(table, new ArrayList<>(columns));
+                shapes.put(key, shape);
+            }
+
+            shape.count++;
+            shape.totalNanos += elapsedNanos;
+            shape.lastUsed = now;
+            shape.dirty = true;
+            Shape covering = findCovering(shape);
+            if (covering != null) {
+                covering.lastUsed = now;
+                covering.dirty = true;
+            } else {
+                create = shouldIndex(shape);
+            }
+
+            if (create) {
+                if (!createScheduled) {
+                    createScheduled = true;
+                    sabres.schedule(flush, 0);
+                }
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                sabres.schedule(flush, FLUSH_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private void flush() {
+        synchronized (this) {
+            flushScheduled = false;
+            createScheduled = false;
+        }
+
+        try {
+            sabres.open();
+            try {
+                update();
+            } finally {
+                sabres.close();
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to update automatic indices", e);
+        }
+    }
+
+    // creates and drops indices, then saves the statistics that changed.
+    private void update() throws SabresException {
+        final long now = System.currentTimeMillis();
+        List<Shape> create = new ArrayList<>();
+        List<Shape> unused = new ArrayList<>();
+        synchronized (this) {
+            for (Shape shape : shapes.values()) {
+                if (shape.indexed && !SqliteMaster.indexExists(sabres, shape.getIndexName())) {
+                    // dropped together with its table.
+                    shape.indexed = false;
+                    shape.dirty = true;
+                }
+
+                if (shape.indexed) {
+                    if (now - shape.lastUsed > unusedMillis) {
+                        unused.add(shape);
+                    }
+                } else if (shouldIndex(shape) && findCovering(shape) == null &&
+                    SqliteMaster.tableExists(sabres, shape.table)) {
+                    create.add(shape);
+                }
+            }
+        }
+
+        for (Shape shape : unused) {
+            drop(shape);
+            synchronized (this) {
+                // it has to earn its index again.
+                shape.count = 0;
+                shape.totalNanos = 0;
+            }
+        }
+
+        for (Shape shape : create) {
+            create(shape);
+        }
+
+        save();
+    }
+
+    private void create(Shape shape) throws SabresException {
+        synchronized (this) {
+            if (shape.indexed || findCovering(shape) != null) {
+                return;
+            }
+        }
+
+        Log.i(TAG, String.format("Creating index %s on %s after %d queries",
+            shape.getIndexName(), shape.getKey(), shape.count));
+        SqliteMaster.createIndex(sabres, new CreateIndexCommand(shape.table, shape.columns).
+            withName(shape.getIndexName()).ifNotExists());
+        List<Shape> redundant = new ArrayList<>();
+        synchronized (this) {
+            shape.indexed = true;
+            shape.dirty = true;
+            for (Shape other : shapes.values()) {
+                if (other != shape && other.indexed && other.table.equals(shape.table) &&
+                    startsWith(shape.columns, other.columns)) {
+                    redundant.add(other);
+                }
+            }
+        }
+
+        for (Shape other : redundant) {
+            drop(other);
+        }
+    }
+
+    private void drop(Shape shape) throws SabresException {
+        Log.i(TAG, String.format("Dropping index %s on %s", shape.getIndexName(),
+            shape.getKey()));
+        SqliteMaster.dropIndex(sabres, new DropIndexCommand(shape.table, shape.getIndexName()).
+            ifExists());
+        synchronized (this) {
+            shape.indexed = false;
+            shape.dirty = true;
+        }
+    }
+
+    private void save() throws SabresException {
+        List<Map<String, SabresValue>> rows = new ArrayList<>();
+        synchronized (this) {
+            for (Shape shape : shapes.values()) {
+                if (shape.dirty) {
+                    Map<String, SabresValue> values = new HashMap<>();
+                    values.put(TABLE_KEY, new StringValue(shape.table));
+                    values.put(COLUMNS_KEY, new StringValue(join(",", shape.columns)));
+                    values.put(COUNT_KEY, new LongValue(shape.count));
+                    values.put(TOTAL_NANOS_KEY, new LongValue(shape.totalNanos));
+                    values.put(LAST_USED_KEY, new LongValue(shape.lastUsed));
+                    values.put(INDEXED_KEY, new BooleanValue(shape.indexed));
+                    rows.add(values);
+                    shape.dirty = false;
+                }
+            }
+        }
+
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        sabres.beginTransaction();
+        try {
+            for (Map<String, SabresValue> values : rows) {
+                InsertCommand command = new InsertCommand(TABLE_NAME, values);
+                sabres.insert(command.toSql(), command.getArgs());
+            }
+            sabres.setTransactionSuccessful();
+        } finally {
+            sabres.endTransaction();
+        }
+    }
+
+    private boolean shouldIndex(Shape shape) {
+        return shape.count >= minQueries || (shape.count >= MIN_LATENCY_SAMPLES &&
+            shape.totalNanos / shape.count >= minAverageNanos);
+    }
+
+    // an index serves every shape whose columns are a prefix of its own.
+    private Shape findCovering(Shape shape) {
+        for (Shape other : shapes.values()) {
+            if (other.indexed && other.table.equals(shape.table) &&
+                startsWith(other.columns, shape.columns) &&
+                SqliteMaster.indexExists(sabres, other.getIndexName())) {
+                return other;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean startsWith(List<String> columns, List<String> prefix) {
+        return columns.size() >= prefix.size() &&
+            columns.subList(0, prefix.size()).equals(prefix);
+    }
+
+    private static String join(String separator, List<String> columns) {
+        final StringBuilder sb = new StringBuilder();
+        boolean first = true;
+        for (String column : columns) {
+            if (!first) {
+                sb.append(separator);
+            } else {
+                first = false;
+            }
+
+            sb.append(column);
+        }
+
+        return sb.toString();
+    }
+
+    private static final class Shape {
+        private final String table;
+        private final List<String> columns;
+        private long count = 0;
+        private long totalNanos = 0;
+        private long lastUsed = 0;
+        private boolean indexed = false;
+        private boolean dirty = false;
+
+        Shape(String table, List<String> columns) {
+            this.table = table;
+            this.columns = columns;
+        }
+
+        static String getKey(String table, List<String> columns) {
+            return String.format("%s(%s)", table, join(",", columns));
+        }
+
+        String getKey() {
+            return getKey(table, columns);
+        }
+
+        /**
+         * Named by a digest of the key. Joining the columns, which may carry a collation such as
+         * "name COLLATE NOCASE", gives different shapes the same name, such as (a_b) and (a, b).
+         */
+        String getIndexName() {
+            try {
+                final byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+                    getKey().getBytes("UTF-8"));
+                final StringBuilder sb = new StringBuilder(INDEX_NAME_PREFIX).append(table).
+                    append('_');
+                for (int i = 0; i < INDEX_NAME_DIGEST_BYTES; i++) {
+                    sb.append(String.format("%02x", digest[i]));
+                }
+
+                return sb.toString();
+            } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+                throw new IllegalStateException("Failed to name the index of " + getKey(), e);
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.sabres;
 
 import java.util.Map;
+import java.util.TreeMap;
 
 final class InsertCommand {
     private final String table;
@@ -24,7 +25,8 @@ final class InsertCommand {
 
     InsertCommand(String table, Map<String, SabresValue> objects) {
         this.table = table;
-        this.objects = objects;
+        // sorted, so the same set of keys always renders the same sql.
+        this.objects = new TreeMap<>(objects);
     }
 
     String toSql() {
@@ -43,13 +45,17 @@ final class InsertCommand {
             }
 
             keys.append(entry.getKey());
-            values.append(entry.getValue().toSql());
+            values.append("?");
         }
 
         return sb.append(String.format("(%s) VALUES (%s);", keys.toString(),
             values.toString())).toString();
     }
 
+    SabresValue[] getArgs() {
+        return objects.values().toArray(new SabresValue[objects.size()]);
+    }
+
     @Override
     public String toString() {
         return toSql();
@@ -16,6 +16,8 @@
 
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 import java.util.List;
 
 abstract class ListValue<T> extends SabresValue<List<T>> {
@@ -30,6 +32,11 @@ abstract class ListValue<T> extends SabresValue<List<T>> {
         return String.format("'%s'", UNUSED);
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        program.bindString(index, UNUSED);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("{");
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * A query that is evaluated again whenever a write to one of its tables commits.
+ * <p>
+ * Writes are detected from the save and delete paths of Sabres, and writes that commit within a
+ * short window are handled by a single evaluation. Each evaluation selects the object ids with a
+ * hash of their values, without creating objects, and reports the difference to the previous
+ * one. The query must not be changed while it is observed.
+ *
+ * @param <T> The SabresObject subclass of the query.
+ * @see SabresQuery#observe(ObserveCallback)
+ */
+public final class LiveQuery<T extends SabresObject> {
+    private static final long DEBOUNCE_MILLIS = 100;
+    private final Sabres sabres;
+    private final SabresQuery<T> query;
+    private final ObserveCallback callback;
+    private final Object evaluationLock = new Object();
+    private final Runnable evaluate = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+        }
+    };
+    // read by the writing threads, so only the tables of the query notify it.
+    private volatile Set<String> tables;
+    private volatile boolean cancelled = false;
+    private Map<Long, Integer> fingerprints = Collections.emptyMap();
+    private boolean scheduled = false;
+    private boolean delivered = false;
+
+    LiveQuery(Sabres sabres, SabresQuery<T> query, ObserveCallback callback) {
+        this.sabres = sabres;
+        this.query = query;
+        this.callback = callback;
+        tables = Collections.singleton(query.getName());
+    }
+
+    void start() {
+        sabres.addLiveQuery(this);
+        evaluate();
+    }
+
+    /**
+     * Stops observing the query. The callback is not called after this returns.
+     */
+    public void cancel() {
+        cancelled = true;
+        sabres.removeLiveQuery(this);
+    }
+
+    /**
+     * @return true if {@link #cancel()} was called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Called on the writing thread after a write to the tables committed.
+     */
+    void onChanged(Set<String> changed) {
+        if (Collections.disjoint(tables, changed)) {
+            return;
+        }
+
+        onInvalidated();
+    }
+
+    /**
+     * Evaluates the query again whatever its tables are, such as when the database was deleted.
+     */
+    void onInvalidated() {
+        if (cancelled) {
+            return;
+        }
+
+        synchronized (this) {
+            if (scheduled) {
+                return;
+            }
+
+            scheduled = true;
+        }
+
+        sabres.schedule(evaluate, DEBOUNCE_MILLIS);
+    }
+
+    private void evaluate() {
+        Sabres.callInReader(new Callable<QueryChanges>() {
+            @Override
+            public QueryChanges call() throws Exception {
+                return evaluateInReader();
+            }
+        }).continueWith(new Continuation<QueryChanges, Void>() {
+            @Override
+            public Void then(Task<QueryChanges> task) throws Exception {
+                if (cancelled) {
+                    return null;
+                }
+
+                if (task.isFaulted()) {
+                    callback.done(null, SabresException.construct(task.getError()));
+                } else if (task.getResult() != null) {
+                    callback.done(task.getResult(), null);
+                }
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    // evaluations run one at a time, so each diff is against the one before it.
+    private QueryChanges evaluateInReader() throws SabresException {
+        synchronized (evaluationLock) {
+            synchronized (this) {
+                // a write that commits from here on needs another evaluation.
+                scheduled = false;
+            }
+
+            if (cancelled) {
+                return null;
+            }
+
+            Set<String> read = new HashSet<>();
+            Map<Long, Integer> current;
+            sabres.open();
+            try {
+                current = query.fingerprint(sabres, read);
+            } finally {
+                sabres.close();
+            }
+
+            tables = read;
+            QueryChanges changes = QueryChanges.diff(fingerprints, current);
+            fingerprints = current;
+            if (delivered && changes.isEmpty()) {
+                return null;
+            }
+
+            delivered = true;
+            return changes;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import com.jakewharton.fliptables.FlipTable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry of operation counters, latency histograms and row counts.
+ * <p>
+ * Recording is lock free, so it can be called from every reader and the writer concurrently.
+ * Percentiles are estimated from power of two microsecond buckets, and report the upper bound
+ * of the bucket they fall in.
+ */
+final class Metrics {
+    private final Histogram[] histograms;
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private volatile MetricsListener listener;
+
+    Metrics() {
+        MetricsListener.Operation[] operations = MetricsListener.Operation.values();
+        histograms = new Histogram[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    void setListener(MetricsListener listener) {
+        this.listener = listener;
+    }
+
+    void record(MetricsListener.Operation operation, String sql, long elapsedNanos, long rows) {
+        histograms[operation.ordinal()].record(elapsedNanos);
+        switch (operation) {
+            case SELECT:
+            case COUNT:
+                rowsRead.addAndGet(rows);
+                break;
+            case INSERT:
+            case UPDATE_DELETE:
+                rowsWritten.addAndGet(rows);
+                break;
+        }
+
+        MetricsListener l = listener;
+        if (l != null) {
+            l.onOperation(operation, sql, elapsedNanos, rows);
+        }
+    }
+
+    long getCount(MetricsListener.Operation operation) {
+        return histograms[operation.ordinal()].count.get();
+    }
+
+    long getPercentileNanos(MetricsListener.Operation operation, double percentile) {
+        return histograms[operation.ordinal()].percentile(percentile);
+    }
+
+    long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        rowsRead.set(0);
+        rowsWritten.set(0);
+    }
+
+    @Override
+    public String toString() {
+        String[] headers = new String[] {"Operation", "Count", "Total ms", "p50 ms", "p95 ms",
+            "p99 ms", "Max ms"};
+        MetricsListener.Operation[] operations = MetricsListener.Operation.values();
+        String[][] data = new String[operations.length][];
+        for (int i = 0; i < operations.length; i++) {
+            Histogram histogram = histograms[i];
+            data[i] = new String[] {operations[i].name(), String.valueOf(histogram.count.get()),
+                millis(histogram.total.get()), millis(histogram.percentile(0.5)),
+                millis(histogram.percentile(0.95)), millis(histogram.percentile(0.99)),
+                millis(histogram.max.get())};
+        }
+
+        return String.format("%s\nrows read: %d, rows written: %d", FlipTable.of(headers, data),
+            rowsRead.get(), rowsWritten.get());
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / (double)TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static final class Histogram {
+        // bucket i holds durations below 2^i microseconds, the last one holds everything above.
+        private static final int BUCKETS = 32;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            for (;;) {
+                long current = max.get();
+                if (nanos <= current || max.compareAndSet(current, nanos)) {
+                    break;
+                }
+            }
+        }
+
+        long percentile(double percentile) {
+            long target = (long)Math.ceil(count.get() * percentile);
+            if (target == 0) {
+                return 0;
+            }
+
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(TimeUnit.MICROSECONDS.toNanos(1L << i), max.get());
+                }
+            }
+
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+    }
+}
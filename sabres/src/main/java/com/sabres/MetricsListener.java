@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+/**
+ * A MetricsListener is notified of every database operation Sabres performs, with its duration.
+ * <p>
+ * Set it with {@link Sabres#setMetricsListener(MetricsListener)} to forward Sabres metrics to your
+ * own monitoring. The listener is called synchronously on the thread that ran the operation,
+ * often while a transaction is open, so it should return quickly.
+ * <pre>
+ * {@code
+ * Sabres.setMetricsListener(new MetricsListener() {
+ *     public void onOperation(MetricsListener.Operation operation, String sql,
+ *         long elapsedNanos, long rows) {
+ *         myMonitor.record(operation.name(), elapsedNanos);
+ *     }
+ * });
+ * }
+ * </pre>
+ */
+public interface MetricsListener {
+    /**
+     * Override this function with the code you want to run after each operation.
+     *
+     * @param operation    The kind of operation.
+     * @param sql          The sql that ran, or null for operations that are not a single
+     *                     statement.
+     * @param elapsedNanos The duration of the operation in nanoseconds.
+     * @param rows         The number of rows read or written by the operation.
+     */
+    void onOperation(Operation operation, String sql, long elapsedNanos, long rows);
+
+    /**
+     * The kinds of operations that are measured.
+     */
+    enum Operation {
+        /**
+         * Schema changes and other sql that returns no data.
+         */
+        EXEC,
+        /**
+         * A single row insert.
+         */
+        INSERT,
+        /**
+         * An update or delete statement.
+         */
+        UPDATE_DELETE,
+        /**
+         * A query that returns a cursor. Reported when the cursor is first read, which is when
+         * the query runs, on the thread that reads it.
+         */
+        SELECT,
+        /**
+         * A query that returns a single number.
+         */
+        COUNT,
+        /**
+         * An outermost transaction, from begin to end.
+         */
+        TRANSACTION,
+        /**
+         * Time spent taking a reference on the database, which waits while the database is
+         * being created or deleted.
+         */
+        LOCK_WAIT,
+        /**
+         * Opening the database and preparing the schema table, on initialize and after the
+         * database is deleted.
+         */
+        STARTUP,
+        /**
+         * Loading the schema of a single class on its first use. Rows are the number of
+         * columns loaded.
+         */
+        SCHEMA_LOAD
+    }
+}
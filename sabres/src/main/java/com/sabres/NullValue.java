@@ -16,6 +16,8 @@
 
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 class NullValue extends SabresValue<Void> {
     private final static String NULL = "NULL";
 
@@ -28,6 +30,11 @@ class NullValue extends SabresValue<Void> {
         return NULL;
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        program.bindNull(index);
+    }
+
     @Override
     public String toString() {
         return toSql();
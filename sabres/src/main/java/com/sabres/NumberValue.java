@@ -16,6 +16,8 @@
 
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 abstract class NumberValue<T extends Number> extends SabresValue<T> {
 
     NumberValue(T value) {
@@ -27,6 +29,11 @@ abstract class NumberValue<T extends Number> extends SabresValue<T> {
         return String.valueOf(getValue());
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        program.bindLong(index, getValue().longValue());
+    }
+
     @Override
     public String toString() {
         return toSql();
@@ -16,6 +16,8 @@
 
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 final class ObjectValue<T extends SabresObject> extends SabresValue<T> {
 
     ObjectValue(T value) {
@@ -27,6 +29,11 @@ final class ObjectValue<T extends SabresObject> extends SabresValue<T> {
         return String.valueOf(getValue().getObjectId());
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        program.bindLong(index, getValue().getObjectId());
+    }
+
     @Override
     public String toString() {
         return toSql();
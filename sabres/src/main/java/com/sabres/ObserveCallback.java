@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+/**
+ * An ObserveCallback is used to run code whenever the results of an observed SabresQuery
+ * change.
+ * <p>
+ * The done function is run in the UI thread, once with the initial results and again after
+ * every committed write that changed them. The query runs in a background thread.
+ * <p>
+ * For example, this sample code keeps an adapter of objects of class "MyClass" up to date.
+ *
+ * <pre>
+ * {@code
+ * SabresQuery<MyClass> query = SabresQuery.getQuery(MyClass.class);
+ * LiveQuery<MyClass> liveQuery = query.observe(new ObserveCallback() {
+ *     public void done(QueryChanges changes, SabresException e) {
+ *         if (e == null) {
+ *             adapter.apply(changes);
+ *         } else {
+ *             queryFailed();
+ *         }
+ *     }
+ * });
+ * // when the screen goes away
+ * liveQuery.cancel();
+ * }
+ * </pre>
+ */
+public interface ObserveCallback {
+    /**
+     * Override this function with the code you want to run when the results change.
+     *
+     * @param changes The changes since the previous call, or null if the query failed.
+     * @param e       The exception raised by the query, or null if it succeeded.
+     */
+    void done(QueryChanges changes, SabresException e);
+}
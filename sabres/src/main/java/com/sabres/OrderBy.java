@@ -25,6 +25,14 @@ final class OrderBy {
         this.direction = direction;
     }
 
+    String getKey() {
+        return key;
+    }
+
+    Direction getDirection() {
+        return direction;
+    }
+
     String toSql() {
         return String.format("%s %s", key, direction.toString());
     }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The difference between two evaluations of an observed {@link SabresQuery}, by object id.
+ *
+ * @see SabresQuery#observe(ObserveCallback)
+ */
+public final class QueryChanges {
+    private final List<Long> ids;
+    private final List<Long> inserted;
+    private final List<Long> removed;
+    private final List<Long> changed;
+
+    private QueryChanges(List<Long> ids, List<Long> inserted, List<Long> removed,
+        List<Long> changed) {
+        this.ids = Collections.unmodifiableList(ids);
+        this.inserted = Collections.unmodifiableList(inserted);
+        this.removed = Collections.unmodifiableList(removed);
+        this.changed = Collections.unmodifiableList(changed);
+    }
+
+    /**
+     * @param previous the hash of the values of each object by id, in the order of the query.
+     * @param current  the same for the new results.
+     */
+    static QueryChanges diff(Map<Long, Integer> previous, Map<Long, Integer> current) {
+        List<Long> inserted = new ArrayList<>();
+        List<Long> changed = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : current.entrySet()) {
+            Integer hash = previous.get(entry.getKey());
+            if (hash == null) {
+                inserted.add(entry.getKey());
+            } else if (!hash.equals(entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        List<Long> removed = new ArrayList<>();
+        for (Long id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+
+        return new QueryChanges(new ArrayList<>(current.keySet()), inserted, removed, changed);
+    }
+
+    /**
+     * @return The object ids of all results, in the order of the query.
+     */
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return The object ids of the objects that started to match the query.
+     */
+    public List<Long> getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return The object ids of the objects that no longer match the query.
+     */
+    public List<Long> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return The object ids of the objects that still match the query, but whose values
+     * changed.
+     */
+    public List<Long> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return true if no object was inserted, removed or changed.
+     */
+    public boolean isEmpty() {
+        return inserted.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("inserted=%s, removed=%s, changed=%s", inserted, removed, changed);
+    }
+}
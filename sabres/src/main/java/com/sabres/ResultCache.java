@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LRU cache of query results, bounded by the number of results and their estimated size.
+ * <p>
+ * A result is keyed by its sql and bind arguments and remembers the tables it was read from.
+ * A write to a table drops the results read from it. Each table also has a generation, which
+ * goes up with every write and again when the transaction of the write ends. A result is only
+ * stored if the generations of its tables did not change while it was read. So a query that
+ * raced a write, or read the snapshot from before a transaction committed, is never served.
+ */
+final class ResultCache {
+    // rough size of a boxed value or array reference, used to estimate the size of a result.
+    private static final int VALUE_OVERHEAD = 16;
+    private final int maxResults;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Result> results;
+    private final Map<String, Long> generations = new HashMap<>();
+    private final ThreadLocal<Set<String>> written = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() {
+            return new HashSet<>();
+        }
+    };
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    ResultCache(int maxResults, long maxBytes) {
+        this.maxResults = maxResults;
+        this.maxBytes = maxBytes;
+        results = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    static String getKey(String sql, SabresValue[] args) {
+        final StringBuilder sb = new StringBuilder(sql);
+        for (SabresValue arg : args) {
+            // the type is part of the key, a text '1' and an integer 1 do not always compare equal.
+            sb.append('\n').append(arg.getClass().getSimpleName()).append(' ').append(arg);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @return a cursor over the cached result, or null if there is none.
+     */
+    synchronized Cursor get(String key) {
+        Result result = results.get(key);
+        if (result == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return result.toCursor();
+    }
+
+    /**
+     * Must be called before the query runs, the result is stored against these generations.
+     */
+    synchronized Map<String, Long> getGenerations(Collection<String> tables) {
+        Map<String, Long> current = new HashMap<>(tables.size());
+        for (String table : tables) {
+            current.put(table, getGeneration(table));
+        }
+
+        return current;
+    }
+
+    /**
+     * Copies the rows of the cursor into the cache, unless the result is too large.
+     *
+     * @return a cursor over the same rows, which replaces the given one.
+     */
+    Cursor put(String key, Map<String, Long> generations, Cursor c) {
+        final String[] columns = c.getColumnNames();
+        final List<Object[]> rows = new ArrayList<>(c.getCount());
+        long size = key.length() * 2;
+        for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = getValue(c, i);
+                size += estimateSize(row[i]);
+            }
+
+            if (size > maxBytes) {
+                c.moveToPosition(-1);
+                return c;
+            }
+
+            rows.add(row);
+        }
+
+        c.close();
+        Result result = new Result(columns, rows, generations, size);
+        synchronized (this) {
+            if (isCurrent(generations)) {
+                Result previous = results.put(key, result);
+                if (previous != null) {
+                    bytes -= previous.size;
+                }
+
+                bytes += size;
+                evict();
+            }
+        }
+
+        return result.toCursor();
+    }
+
+    /**
+     * Copies the rows of the cursor, so they can be read after the cursor is closed.
+     */
+    static Cursor copy(Cursor c) {
+        final String[] columns = c.getColumnNames();
+        MatrixCursor copy = new MatrixCursor(columns, c.getCount());
+        for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = getValue(c, i);
+            }
+
+            copy.addRow(row);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Drops the results read from the table. Results of a transaction that is still open are
+     * dropped again when it ends, since other connections read the old data until then.
+     */
+    void invalidate(Sabres sabres, String table) {
+        invalidate(table);
+        if (sabres.inTransaction()) {
+            final Set<String> tables = written.get();
+            if (tables.isEmpty()) {
+                sabres.addTransactionListener(new Sabres.TransactionListener() {
+                    @Override
+                    public void onEnd(boolean committed) {
+                        for (String table : tables) {
+                            invalidate(table);
+                        }
+
+                        tables.clear();
+                    }
+                });
+            }
+
+            tables.add(table);
+        }
+    }
+
+    synchronized void clear() {
+        results.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size=%d/%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d",
+            results.size(), maxResults, bytes, maxBytes, hits, misses, evictions);
+    }
+
+    private synchronized void invalidate(String table) {
+        generations.put(table, getGeneration(table) + 1);
+        Iterator<Result> it = results.values().iterator();
+        while (it.hasNext()) {
+            Result result = it.next();
+            if (result.generations.containsKey(table)) {
+                bytes -= result.size;
+                it.remove();
+            }
+        }
+    }
+
+    private long getGeneration(String table) {
+        Long generation = generations.get(table);
+        return generation == null ? 0 : generation;
+    }
+
+    private boolean isCurrent(Map<String, Long> generations) {
+        for (Map.Entry<String, Long> entry : generations.entrySet()) {
+            if (getGeneration(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void evict() {
+        Iterator<Result> it = results.values().iterator();
+        while (it.hasNext() && (results.size() > maxResults || bytes > maxBytes)) {
+            bytes -= it.next().size;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static Object getValue(Cursor c, int column) {
+        switch (c.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return c.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return c.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return c.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return c.getBlob(column);
+        }
+
+        return null;
+    }
+
+    private static long estimateSize(Object value) {
+        if (value instanceof String) {
+            return VALUE_OVERHEAD + ((String)value).length() * 2;
+        }
+
+        if (value instanceof byte[]) {
+            return VALUE_OVERHEAD + ((byte[])value).length;
+        }
+
+        return VALUE_OVERHEAD;
+    }
+
+    private static final class Result {
+        private final String[] columns;
+        private final List<Object[]> rows;
+        private final Map<String, Long> generations;
+        private final long size;
+
+        Result(String[] columns, List<Object[]> rows, Map<String, Long> generations, long size) {
+            this.columns = columns;
+            this.rows = rows;
+            this.generations = generations;
+            this.size = size;
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, rows.size());
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+
+            return cursor;
+        }
+    }
+}
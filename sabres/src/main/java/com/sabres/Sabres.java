@@ -18,15 +18,35 @@ package com.sabres;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
 import android.database.sqlite.SQLiteStatement;
 import android.os.Build;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import bolts.Continuation;
 import bolts.Task;
@@ -37,15 +57,62 @@ import bolts.Task;
  */
 public final class Sabres {
     private final static String TAG = Sabres.class.getSimpleName();
-    private final static String DATABASE_NAME = "sabres.db";
+    private final static int STATEMENT_CACHE_SIZE = 64;
+    private final static int CLOSED = 1 << 30;
+    private final static long DRAIN_POLL_MILLIS = 100;
+    // SQLite limits a statement to 999 bound variables.
+    final static int MAX_VARIABLES = 999;
+    private final static Pattern FULL_SCAN_EXCLUSION =
+        Pattern.compile("USING .*INDEX|USING INTEGER PRIMARY KEY");
     private static Sabres self;
     private static boolean debug = false;
+    private static volatile long slowQueryThresholdNanos = -1;
     private final Context context;
-    private final Semaphore sem = new Semaphore(0, true);
+    private final Configuration configuration;
+    private final ScheduledExecutorService writeExecutor;
+    private final ExecutorService readExecutor;
+    // number of open() calls that were not closed yet. CLOSED is set while the database is being
+    // (re)created, which makes open() wait for the lifecycle to finish.
+    private final AtomicInteger references = new AtomicInteger(CLOSED);
+    private final Object lifecycleLock = new Object();
+    private final StatementCache statementCache = new StatementCache(STATEMENT_CACHE_SIZE);
+    private final WriteBehindQueue writeBehindQueue;
+    private final Metrics metrics = new Metrics();
+    private final IndexAdvisor indexAdvisor;
+    private final ResultCache resultCache;
+    private final List<LiveQuery<?>> liveQueries = new CopyOnWriteArrayList<>();
+    // lazy results that hold a reference until they are closed.
+    private final List<SabresResultList<?>> resultLists = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<TransactionState> transaction =
+        new ThreadLocal<TransactionState>() {
+            @Override
+            protected TransactionState initialValue() {
+                return new TransactionState();
+            }
+        };
+    // resolved when the database is ready. Background operations are chained onto it.
+    private volatile Task<Void> ready;
+    private volatile CountDownLatch opened = new CountDownLatch(1);
+    private volatile CountDownLatch drained = new CountDownLatch(1);
+    // why the last startup failed, the database stays closed until it is deleted.
+    private volatile SabresException startupError;
     private SQLiteDatabase database;
 
-    private Sabres(Context context) {
+    private Sabres(Context context, Configuration configuration) {
         this.context = context.getApplicationContext();
+        this.configuration = configuration;
+        writeExecutor = Executors.newSingleThreadScheduledExecutor(new LaneThreadFactory("writer"));
+        readExecutor = Executors.newFixedThreadPool(configuration.connectionPoolSize,
+            new LaneThreadFactory("reader"));
+        writeBehindQueue = configuration.writeBehindWindowMillis > 0 ?
+            new WriteBehindQueue(writeExecutor, configuration.writeBehindWindowMillis,
+                configuration.writeBehindMaxObjects) : null;
+        indexAdvisor = new IndexAdvisor(configuration.indexMinQueries,
+            configuration.indexMinAverageMillis, configuration.indexUnusedDays);
+        // copying a result needs the column types, which older cursors do not report.
+        resultCache = configuration.resultCacheSize > 0 &&
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ?
+            new ResultCache(configuration.resultCacheSize, configuration.resultCacheBytes) : null;
     }
 
     /**
@@ -58,6 +125,19 @@ public final class Sabres {
         Sabres.debug = debug;
     }
 
+    /**
+     * Sets a threshold above which queries are logged as slow, together with their
+     * EXPLAIN QUERY PLAN output. Full table scans and sorts that need a temporary b-tree are
+     * flagged, since they usually mean a where, order by or join key is missing an index.
+     *
+     * @param thresholdMillis Queries that take longer than this are logged, in milliseconds.
+     *                        A negative value disables the slow query log, which is the default.
+     */
+    public static void setSlowQueryThreshold(long thresholdMillis) {
+        slowQueryThresholdNanos = thresholdMillis < 0 ? -1 :
+            TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
     /**
      * Configures and initializes Sabres library.
      * <p>
@@ -75,24 +155,95 @@ public final class Sabres {
      * }
      * </pre>
      *
+     * <p>
+     * Initialization runs in the background. Background operations issued before it finishes,
+     * such as {@link SabresQuery#findInBackground()}, are queued and run as soon as the database
+     * is ready, so they never block a thread waiting for it. Use {@link #getReadyTask()} to
+     * know when it finished.
+     *
      * @param context The active Context for your application.
      */
     public static void initialize(Context context) {
+        initialize(context, new Configuration.Builder().build());
+    }
+
+    /**
+     * Configures and initializes Sabres library with a custom {@link Configuration}.
+     * <p>
+     * This must be called before your application can use the Sabres library.
+     * <pre>
+     * {@code
+     * Sabres.initialize(this, new Sabres.Configuration.Builder()
+     *     .synchronous(Sabres.Synchronous.NORMAL)
+     *     .mmapSize(64 * 1024 * 1024)
+     *     .build());
+     * }
+     * </pre>
+     *
+     * @param context       The active Context for your application.
+     * @param configuration The database configuration.
+     */
+    public static void initialize(Context context, Configuration configuration) {
         if (self == null) {
-            self = new Sabres(context);
+            self = new Sabres(context, configuration);
             self.initialize();
         }
     }
 
+    /**
+     * Gets the Task that background operations issued now wait for. It resolves when the
+     * database is ready, after {@link #initialize(Context)} or the latest
+     * {@link #deleteDatabase()}, and is faulted with the error if that failed.
+     *
+     * @return A Task that is resolved when the database is ready.
+     */
+    public static Task<Void> getReadyTask() {
+        return self.ready;
+    }
+
     static Sabres self() {
         return self;
     }
 
+    static <T> Task<T> callInReader(Callable<T> callable) {
+        return self.callWhenReady(callable, self.readExecutor);
+    }
+
+    static <T> Task<T> callInWriter(Callable<T> callable) {
+        return self.callWhenReady(callable, self.writeExecutor);
+    }
+
+    // chains onto the database lifecycle instead of parking a thread in open() until it is ready.
+    private <T> Task<T> callWhenReady(final Callable<T> callable, Executor executor) {
+        return ready.onSuccess(new Continuation<Void, T>() {
+            @Override
+            public T then(Task<Void> task) throws Exception {
+                return callable.call();
+            }
+        }, executor);
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    IndexAdvisor getIndexAdvisor() {
+        return indexAdvisor;
+    }
+
+    void schedule(Runnable runnable, long delayMillis) {
+        writeExecutor.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static WriteBehindQueue writeBehindQueue() {
+        return self.writeBehindQueue;
+    }
+
     /**
      * Prints all tables that exist in Sabres with row counts.
      */
     public static void printTables() {
-        Task.callInBackground(new Callable<String>() {
+        callInReader(new Callable<String>() {
             @Override
             public String call() throws Exception {
                 Sabres sabres = Sabres.self;
@@ -121,7 +272,7 @@ public final class Sabres {
      * Prints all indices that exist in Sabres.
      */
     public static void printIndices() {
-        Task.callInBackground(new Callable<String>() {
+        callInReader(new Callable<String>() {
             @Override
             public String call() throws Exception {
                 Sabres sabres = Sabres.self;
@@ -146,13 +297,74 @@ public final class Sabres {
         }, Task.UI_THREAD_EXECUTOR);
     }
 
+    /**
+     * Prints the hit and miss counters of the compiled statement cache.
+     */
+    public static void printStatementCache() {
+        Log.i(TAG, String.format("statement cache: %s", self.statementCache.toString()));
+    }
+
+    /**
+     * Prints the hit and miss counters of the query result cache.
+     *
+     * @see Configuration.Builder#resultCache(int, long)
+     */
+    public static void printResultCache() {
+        Log.i(TAG, String.format("result cache: %s", self.resultCache == null ? "disabled" :
+            self.resultCache.toString()));
+    }
+
     /**
      * Print the Schema for a specific SabresObject
      *
      * @param clazz The object class to print.
      */
-    public static <T extends SabresObject> void printSchema(Class<T> clazz) {
-        Schema.printSchema(clazz.getSimpleName());
+    public static <T extends SabresObject> void printSchema(final Class<T> clazz) {
+        callInReader(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Sabres sabres = Sabres.self;
+                sabres.open();
+                try {
+                    Schema.printSchema(sabres, clazz.getSimpleName());
+                } finally {
+                    sabres.close();
+                }
+                return null;
+            }
+        }).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                if (task.isFaulted()) {
+                    Log.e(TAG, "printSchema failed", task.getError());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Prints counters, latency percentiles and row counts for every kind of database operation
+     * since the library was initialized or the stats were last reset.
+     */
+    public static void printStats() {
+        Log.i(TAG, String.format("stats:\n%s", self.metrics.toString()));
+    }
+
+    /**
+     * Resets the stats printed by {@link #printStats()}.
+     */
+    public static void resetStats() {
+        self.metrics.reset();
+    }
+
+    /**
+     * Sets a listener that is notified of every database operation with its duration.
+     *
+     * @param listener The listener, or null to remove it.
+     */
+    public static void setMetricsListener(MetricsListener listener) {
+        self.metrics.setListener(listener);
     }
 
     /**
@@ -172,159 +384,1058 @@ public final class Sabres {
     }
 
     /**
-     * Deletes the Sabres Database.
+     * Deletes the Sabres Database. Operations that are running finish first, and lazy results
+     * that were not closed are closed.
      *
      * @return A task that resolves when the delete finish.
      */
     public static Task<Void> deleteDatabase() {
-        return Task.callInBackground(new Callable<Void>() {
+        synchronized (self) {
+            // runs after a failed startup too, deleting the database is how to recover from it.
+            Task<Void> task = self.ready.continueWith(new Continuation<Void, Void>() {
+                @Override
+                public Void then(Task<Void> task) throws Exception {
+                    synchronized (self.lifecycleLock) {
+                        try {
+                            self.shutdown();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException("Failed to delete Database", e);
+                        }
+
+                        self.context.deleteDatabase(self.configuration.databaseName);
+                        self.startup();
+                    }
+
+                    // every table lost its rows, the observers still show the old objects.
+                    for (LiveQuery<?> liveQuery : self.liveQueries) {
+                        liveQuery.onInvalidated();
+                    }
+                    return null;
+                }
+            }, self.writeExecutor);
+
+            // operations issued from now on run on the new database, and fail with the error of
+            // its startup if it failed.
+            self.ready = task;
+            return task;
+        }
+    }
+
+    private synchronized void initialize() {
+        ready = Task.call(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
-                try {
-                    self.sem.acquire();
-                } catch (InterruptedException e) {
-                    throw new RuntimeException("Failed to delete Database", e);
+                synchronized (lifecycleLock) {
+                    startup();
                 }
-
-                self.context.deleteDatabase(DATABASE_NAME);
                 return null;
             }
-        }).onSuccessTask(new Continuation<Void, Task<Void>>() {
-            @Override
-            public Task<Void> then(Task<Void> task) throws Exception {
-                return self.initialize();
-            }
-        });
+        }, writeExecutor);
     }
 
-    private Task<Void> initialize() {
-        return Task.callInBackground(new Callable<Void>() {
+    private void startup() throws SabresException {
+        final long start = System.nanoTime();
+        try {
+            createDatabase();
+            SqliteMaster.initialize(this);
+            Schema.initialize(this);
+            indexAdvisor.initialize(this);
+            FullTextIndex.initialize(this);
+            ValueSetValue.initialize(this);
+            metrics.record(MetricsListener.Operation.STARTUP, null, System.nanoTime() - start, 0);
+            startupError = null;
+            references.set(0);
+        } catch (Exception e) {
+            // the references stay closed, so open() fails with this instead of using the
+            // database.
+            startupError = SabresException.construct(e);
+            throw startupError;
+        } finally {
+            opened.countDown();
+        }
+
+        if (configuration.prefetchSchema) {
+            prefetchSchema();
+        }
+    }
+
+    private void prefetchSchema() {
+        Task.call(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
+                open();
                 try {
-                    openWithoutLock();
-                    Schema.initialize(Sabres.this);
-                    closeWithoutLock();
+                    for (String name : SabresObject.getSubClassNames()) {
+                        Schema.load(Sabres.this, name);
+                    }
                 } finally {
-                    sem.release();
+                    close();
+                }
+                return null;
+            }
+        }, readExecutor).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                if (task.isFaulted()) {
+                    Log.w(TAG, "Failed to prefetch schema", task.getError());
                 }
                 return null;
             }
         });
     }
 
+    private void shutdown() throws InterruptedException {
+        opened = new CountDownLatch(1);
+        drained = new CountDownLatch(1);
+        if (startupError != null) {
+            // a failed startup left the references closed, with none taken.
+            startupError = null;
+        } else if (references.getAndAdd(CLOSED) != 0) {
+            // an open result list holds its reference until it is closed, which may be never.
+            // A list of a query that is still running is added after this, so they are closed
+            // until the references drain.
+            closeResultLists();
+            while (!drained.await(DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                closeResultLists();
+            }
+        }
+
+        statementCache.clear();
+        if (resultCache != null) {
+            resultCache.clear();
+        }
+
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+    }
+
+    // some pragmas return their new value as a row, which execSQL does not allow.
+    private void pragma(String name, Object value) {
+        final String sql = String.format("PRAGMA %s = %s;", name, value);
+        log(sql);
+        Cursor c = database.rawQuery(sql, null);
+        try {
+            c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
     private void log(String sql) {
         if (debug) {
             Log.d(TAG, sql);
         }
     }
 
+    private void log(String sql, SabresValue[] args) {
+        if (debug) {
+            Log.d(TAG, args.length == 0 ? sql : String.format("%s %s", sql,
+                Arrays.toString(args)));
+        }
+    }
+
+    private static void bind(SQLiteProgram program, SabresValue[] args) {
+        for (int i = 0; i < args.length; i++) {
+            args[i].bind(program, i + 1);
+        }
+    }
+
     void execSQL(String sql) throws SabresException {
         Utils.checkNotMain();
         try {
             log(sql);
+            final long start = System.nanoTime();
             database.execSQL(sql);
+            metrics.record(MetricsListener.Operation.EXEC, sql, System.nanoTime() - start, 0);
         } catch (SQLException e) {
             throw new SabresException(SabresException.SQL_ERROR,
                 String.format("Failed to exec sql: %s", sql), e);
         }
     }
 
-    long insert(String sql) throws SabresException {
+    long insert(String sql, SabresValue[] args) throws SabresException {
         Utils.checkNotMain();
-        log(sql);
+        log(sql, args);
         SQLiteStatement statement = null;
         try {
-            statement = database.compileStatement(sql);
-            return statement.executeInsert();
+            final long start = System.nanoTime();
+            statement = acquireStatement(sql);
+            bind(statement, args);
+            final long id = statement.executeInsert();
+            metrics.record(MetricsListener.Operation.INSERT, sql, System.nanoTime() - start, 1);
+            return id;
         } catch (SQLException e) {
             throw new SabresException(SabresException.SQL_ERROR,
                 String.format("Failed to execute insert sql %s", sql), e);
         } finally {
             if (statement != null) {
-                statement.close();
+                statementCache.release(sql, statement);
             }
         }
     }
 
-    Cursor select(String sql) {
+    void executeUpdateDelete(String sql, SabresValue[] args) throws SabresException {
         Utils.checkNotMain();
-        log(sql);
-        return database.rawQuery(sql, null);
+        log(sql, args);
+        SQLiteStatement statement = null;
+        try {
+            final long start = System.nanoTime();
+            statement = acquireStatement(sql);
+            bind(statement, args);
+            int rows = 0;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                rows = statement.executeUpdateDelete();
+            } else {
+                statement.execute();
+            }
+            metrics.record(MetricsListener.Operation.UPDATE_DELETE, sql,
+                System.nanoTime() - start, rows);
+        } catch (SQLException e) {
+            throw new SabresException(SabresException.SQL_ERROR,
+                String.format("Failed to execute sql %s", sql), e);
+        } finally {
+            if (statement != null) {
+                statementCache.release(sql, statement);
+            }
+        }
     }
 
-    long count(String sql) {
+    private SQLiteStatement acquireStatement(String sql) {
+        return statementCache.acquire(sql, database);
+    }
+
+    Cursor select(String sql, SabresValue[] args) {
+        List<ValueSetValue> sets = ValueSetValue.find(args);
+        if (!sets.isEmpty()) {
+            return selectWithValueSets(sql, args, sets);
+        }
+
+        return query(sql, args);
+    }
+
+    private Cursor query(final String sql, final SabresValue[] args) {
         Utils.checkNotMain();
-        log(sql);
-        return DatabaseUtils.longForQuery(database, sql, null);
+        log(sql, args);
+        // the query only runs when the cursor fills its first window, it is measured then.
+        return database.rawQueryWithFactory(new BindingCursorFactory(args,
+            new MeasuredCursor.Listener() {
+                @Override
+                public void onRun(int rows, long elapsedNanos) {
+                    metrics.record(MetricsListener.Operation.SELECT, sql, elapsedNanos, rows);
+                    checkSlowQuery(sql, args, elapsedNanos);
+                }
+            }), sql, null, null);
     }
 
-    private void openWithoutLock() throws SabresException {
-        if (database == null || !database.isOpen()) {
-            createDatabase();
+    /**
+     * Like {@link #select(String, SabresValue[])}, but serves the result from the result cache
+     * when it is enabled.
+     *
+     * @param tables the tables the query reads, a write to any of them invalidates the result.
+     */
+    Cursor selectCached(String sql, SabresValue[] args, Collection<String> tables) {
+        // the result of a value set depends on values that are not part of the key.
+        if (resultCache == null || !ValueSetValue.find(args).isEmpty()) {
+            return select(sql, args);
+        }
+
+        final String key = ResultCache.getKey(sql, args);
+        Cursor c = resultCache.get(key);
+        if (c != null) {
+            return c;
+        }
+
+        Map<String, Long> generations = resultCache.getGenerations(tables);
+        return resultCache.put(key, generations, select(sql, args));
+    }
+
+    /**
+     * Called for every write to the table, including schema changes. Drops the cached results
+     * of the table and notifies the live queries on it once the write commits.
+     */
+    void invalidate(String table) {
+        if (resultCache != null) {
+            resultCache.invalidate(this, table);
+        }
+
+        TransactionState state = transaction.get();
+        if (state.depth > 0) {
+            state.changedTables.add(table);
         } else {
-            database.acquireReference();
+            notifyLiveQueries(Collections.singleton(table));
         }
     }
 
-    void open() throws SabresException {
+    void addResultList(SabresResultList<?> resultList) {
+        resultLists.add(resultList);
+    }
+
+    void removeResultList(SabresResultList<?> resultList) {
+        resultLists.remove(resultList);
+    }
+
+    private void closeResultLists() {
+        for (SabresResultList<?> resultList : resultLists) {
+            Log.w(TAG, "Closing a SabresResultList that was left open to delete the database");
+            resultList.close();
+        }
+    }
+
+    void addLiveQuery(LiveQuery<?> liveQuery) {
+        liveQueries.add(liveQuery);
+    }
+
+    void removeLiveQuery(LiveQuery<?> liveQuery) {
+        liveQueries.remove(liveQuery);
+    }
+
+    private void notifyLiveQueries(Set<String> tables) {
+        for (LiveQuery<?> liveQuery : liveQueries) {
+            liveQuery.onChanged(tables);
+        }
+    }
+
+    long count(String sql, SabresValue[] args) {
+        List<ValueSetValue> sets = ValueSetValue.find(args);
+        if (!sets.isEmpty()) {
+            beginTransaction();
+            try {
+                loadValueSets(sets);
+                final long count = simpleQueryForLong(sql, args);
+                clearValueSets(sets);
+                setTransactionSuccessful();
+                return count;
+            } finally {
+                endTransaction();
+            }
+        }
+
+        return simpleQueryForLong(sql, args);
+    }
+
+    /**
+     * The transaction keeps the connection that loaded the value sets, temp tables are not
+     * shared between connections, until the rows are copied and the values deleted. It takes
+     * the write lock and the primary connection, so the query is serialized with every writer.
+     * Only used where sqlite has no json_each.
+     */
+    private Cursor selectWithValueSets(String sql, SabresValue[] args,
+        List<ValueSetValue> sets) {
+        beginTransaction();
+        try {
+            loadValueSets(sets);
+            Cursor c = query(sql, args);
+            Cursor copy;
+            try {
+                copy = ResultCache.copy(c);
+            } finally {
+                c.close();
+            }
+
+            clearValueSets(sets);
+            setTransactionSuccessful();
+            return copy;
+        } finally {
+            endTransaction();
+        }
+    }
+
+    private void loadValueSets(List<ValueSetValue> sets) {
+        log(ValueSetValue.CREATE_TABLE_SQL);
+        database.execSQL(ValueSetValue.CREATE_TABLE_SQL);
+        final String sql = ValueSetValue.INSERT_SQL;
+        final long start = System.nanoTime();
+        int rows = 0;
+        SQLiteStatement statement = acquireStatement(sql);
+        try {
+            for (ValueSetValue set : sets) {
+                for (SabresValue value : set.getValues()) {
+                    statement.clearBindings();
+                    set.bind(statement, 1);
+                    value.bind(statement, 2);
+                    statement.executeInsert();
+                    rows++;
+                }
+            }
+        } finally {
+            statementCache.release(sql, statement);
+        }
+
+        metrics.record(MetricsListener.Operation.INSERT, sql, System.nanoTime() - start, rows);
+    }
+
+    private void clearValueSets(List<ValueSetValue> sets) {
+        final String sql = ValueSetValue.DELETE_SQL;
+        SQLiteStatement statement = acquireStatement(sql);
+        try {
+            for (ValueSetValue set : sets) {
+                statement.clearBindings();
+                set.bind(statement, 1);
+                statement.execute();
+            }
+        } finally {
+            statementCache.release(sql, statement);
+        }
+    }
+
+    private long simpleQueryForLong(String sql, SabresValue[] args) {
         Utils.checkNotMain();
+        log(sql, args);
+        SQLiteStatement statement = null;
         try {
-            sem.acquire();
-            openWithoutLock();
-            sem.release();
-        } catch (InterruptedException e) {
-            throw new SabresException(SabresException.OTHER_CAUSE, e.getMessage(), e);
+            final long start = System.nanoTime();
+            statement = acquireStatement(sql);
+            bind(statement, args);
+            final long result = statement.simpleQueryForLong();
+            final long elapsed = System.nanoTime() - start;
+            metrics.record(MetricsListener.Operation.COUNT, sql, elapsed, 1);
+            checkSlowQuery(sql, args, elapsed);
+            return result;
+        } finally {
+            if (statement != null) {
+                statementCache.release(sql, statement);
+            }
         }
     }
 
-    private void closeWithoutLock() {
-        if (database != null && database.isOpen()) {
-            database.releaseReference();
+    /**
+     * sqlite 3.36 and later print "SCAN t" instead of "SCAN TABLE t". A scan that uses an index
+     * or the integer primary key does not read the whole table.
+     */
+    private static boolean isFullScan(String detail) {
+        return detail.startsWith("SCAN ") && !detail.startsWith("SCAN CONSTANT ROW") &&
+            !FULL_SCAN_EXCLUSION.matcher(detail).find();
+    }
+
+    private void checkSlowQuery(String sql, SabresValue[] args, long elapsedNanos) {
+        final long threshold = slowQueryThresholdNanos;
+        if (threshold < 0 || elapsedNanos <= threshold) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        boolean fullScan = false;
+        boolean tempSort = false;
+        Cursor c = null;
+        try {
+            c = database.rawQueryWithFactory(new BindingCursorFactory(args),
+                String.format("EXPLAIN QUERY PLAN %s", sql), null, null);
+            final int detailIndex = c.getColumnIndex("detail");
+            while (c.moveToNext()) {
+                final String detail = c.getString(detailIndex);
+                sb.append("\n    ").append(detail);
+                if (isFullScan(detail)) {
+                    fullScan = true;
+                }
+
+                if (detail.contains("USE TEMP B-TREE")) {
+                    tempSort = true;
+                }
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, String.format("Failed to explain slow query: %s", sql), e);
+            return;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        if (fullScan) {
+            sb.append("\n    warning: full table scan, consider indexing the where keys");
+        }
+
+        if (tempSort) {
+            sb.append("\n    warning: temp b-tree sort, consider indexing the order by keys");
+        }
+
+        Log.w(TAG, String.format("slow query (%.3f ms): %s %s%s",
+            elapsedNanos / (double)TimeUnit.MILLISECONDS.toNanos(1), sql, Arrays.toString(args),
+            sb.toString()));
+    }
+
+    /**
+     * Takes a reference on the database. Does not block, unless the database is being created or
+     * deleted. Background operations are chained onto the lifecycle instead, so only synchronous
+     * calls can get here early.
+     */
+    void open() throws SabresException {
+        Utils.checkNotMain();
+        final long start = System.nanoTime();
+        for (;;) {
+            int current = references.get();
+            if ((current & CLOSED) != 0) {
+                try {
+                    opened.await();
+                } catch (InterruptedException e) {
+                    throw new SabresException(SabresException.OTHER_CAUSE, e.getMessage(), e);
+                }
+
+                final SabresException error = startupError;
+                if (error != null) {
+                    throw new SabresException(error.getErrorCode(),
+                        String.format("The database failed to start: %s", error.getMessage()),
+                        error);
+                }
+            } else if (references.compareAndSet(current, current + 1)) {
+                metrics.record(MetricsListener.Operation.LOCK_WAIT, null,
+                    System.nanoTime() - start, 0);
+                return;
+            }
         }
     }
 
     void close() throws SabresException {
         Utils.checkNotMain();
-        try {
-            sem.acquire();
-            closeWithoutLock();
-            sem.release();
-        } catch (InterruptedException e) {
-            throw new SabresException(SabresException.OTHER_CAUSE, e.getMessage(), e);
+        release();
+    }
+
+    /**
+     * Releases a reference taken by {@link #open()}. Unlike close, this may be called on the
+     * main thread, for a reference held by an object that is closed there.
+     */
+    void release() {
+        if (references.decrementAndGet() == CLOSED) {
+            drained.countDown();
         }
     }
 
     void beginTransaction() {
+        final long start = System.nanoTime();
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
             database.beginTransactionNonExclusive();
         } else {
             database.beginTransaction();
         }
+
+        TransactionState state = transaction.get();
+        if (state.depth++ == 0) {
+            state.start = start;
+        }
     }
 
     void endTransaction() {
-        database.endTransaction();
+        boolean ended = false;
+        try {
+            database.endTransaction();
+            ended = true;
+        } finally {
+            TransactionState state = transaction.get();
+            // a nested transaction that is not successful rolls back the outermost one.
+            if (!state.successful || !ended) {
+                state.failed = true;
+            }
+            state.successful = false;
+
+            if (--state.depth == 0) {
+                metrics.record(MetricsListener.Operation.TRANSACTION, null,
+                    System.nanoTime() - state.start, 0);
+                final boolean committed = !state.failed;
+                List<TransactionListener> listeners = state.listeners;
+                Set<String> changedTables = state.changedTables;
+                state.failed = false;
+                state.listeners = new ArrayList<>();
+                state.changedTables = new HashSet<>();
+                for (TransactionListener listener : listeners) {
+                    listener.onEnd(committed);
+                }
+
+                if (committed && !changedTables.isEmpty()) {
+                    notifyLiveQueries(changedTables);
+                }
+            }
+        }
     }
 
     void setTransactionSuccessful() {
         database.setTransactionSuccessful();
+        transaction.get().successful = true;
+    }
+
+    boolean inTransaction() {
+        return transaction.get().depth > 0;
+    }
+
+    /**
+     * Notifies the listener when the outermost transaction open on the calling thread ends.
+     * Needs to be called inside a transaction.
+     */
+    void addTransactionListener(TransactionListener listener) {
+        TransactionState state = transaction.get();
+        if (state.depth == 0) {
+            throw new IllegalStateException("No transaction is open on this thread");
+        }
+
+        state.listeners.add(listener);
     }
 
     private void createDatabase() throws SabresException {
+        // statements compiled against a previous database instance can not be reused.
+        statementCache.clear();
         try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                database = context.openOrCreateDatabase(DATABASE_NAME,
-                    SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING, null);
-            } else {
-                database = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                    database.enableWriteAheadLogging();
-                }
+            database = context.openOrCreateDatabase(configuration.databaseName, 0, null);
+            // the page size of a database in write ahead logging mode can not be changed,
+            // so it is set before switching the journal mode.
+            if (configuration.pageSize != null) {
+                pragma("page_size", configuration.pageSize);
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                database.enableWriteAheadLogging();
             }
+
             execSQL("PRAGMA foreign_keys = ON;");
+            // these are per connection, and only reach the primary connection. Android opens its
+            // pooled reader connections itself, with no way to configure them.
+            if (configuration.synchronous != null) {
+                pragma("synchronous", configuration.synchronous.name());
+            }
+
+            if (configuration.cacheSize != null) {
+                pragma("cache_size", configuration.cacheSize);
+            }
+
+            if (configuration.mmapSize != null) {
+                pragma("mmap_size", configuration.mmapSize);
+            }
+
+            if (configuration.tempStore != null) {
+                pragma("temp_store", configuration.tempStore.name());
+            }
+
+            if (configuration.journalSizeLimit != null) {
+                pragma("journal_size_limit", configuration.journalSizeLimit);
+            }
+
+            if (configuration.walAutoCheckpoint != null) {
+                pragma("wal_autocheckpoint", configuration.walAutoCheckpoint);
+            }
         } catch (SQLException e) {
             throw new SabresException(SabresException.SQL_ERROR, "Failed to construct database", e);
         }
     }
+
+    /**
+     * Listens for the end of the outermost transaction on a thread.
+     */
+    interface TransactionListener {
+        /**
+         * @param committed true if the transaction was committed, false if it was rolled back.
+         */
+        void onEnd(boolean committed);
+    }
+
+    private static final class TransactionState {
+        private int depth = 0;
+        private long start;
+        private boolean successful = false;
+        private boolean failed = false;
+        private List<TransactionListener> listeners = new ArrayList<>();
+        // written in this transaction, live queries on them are notified when it commits.
+        private Set<String> changedTables = new HashSet<>();
+    }
+
+    /**
+     * Values for the synchronous pragma.
+     *
+     * @see <a href="https://www.sqlite.org/pragma.html#pragma_synchronous">PRAGMA synchronous</a>
+     */
+    public enum Synchronous {
+        OFF,
+        NORMAL,
+        FULL,
+        EXTRA
+    }
+
+    /**
+     * Values for the temp_store pragma.
+     *
+     * @see <a href="https://www.sqlite.org/pragma.html#pragma_temp_store">PRAGMA temp_store</a>
+     */
+    public enum TempStore {
+        DEFAULT,
+        FILE,
+        MEMORY
+    }
+
+    /**
+     * Database configuration passed to {@link #initialize(Context, Configuration)}.
+     * <p>
+     * Every pragma that is not set keeps the SQLite default.
+     */
+    public static final class Configuration {
+        private final String databaseName;
+        private final Synchronous synchronous;
+        private final Integer cacheSize;
+        private final Long mmapSize;
+        private final Integer pageSize;
+        private final TempStore tempStore;
+        private final Long journalSizeLimit;
+        private final Integer walAutoCheckpoint;
+        private final int connectionPoolSize;
+        private final boolean prefetchSchema;
+        private final int indexMinQueries;
+        private final long indexMinAverageMillis;
+        private final int indexUnusedDays;
+        private final int resultCacheSize;
+        private final long resultCacheBytes;
+        private final long writeBehindWindowMillis;
+        private final int writeBehindMaxObjects;
+
+        private Configuration(Builder builder) {
+            databaseName = builder.databaseName;
+            synchronous = builder.synchronous;
+            cacheSize = builder.cacheSize;
+            mmapSize = builder.mmapSize;
+            pageSize = builder.pageSize;
+            tempStore = builder.tempStore;
+            journalSizeLimit = builder.journalSizeLimit;
+            walAutoCheckpoint = builder.walAutoCheckpoint;
+            connectionPoolSize = builder.connectionPoolSize;
+            prefetchSchema = builder.prefetchSchema;
+            indexMinQueries = builder.indexMinQueries;
+            indexMinAverageMillis = builder.indexMinAverageMillis;
+            indexUnusedDays = builder.indexUnusedDays;
+            resultCacheSize = builder.resultCacheSize;
+            resultCacheBytes = builder.resultCacheBytes;
+            writeBehindWindowMillis = builder.writeBehindWindowMillis;
+            writeBehindMaxObjects = builder.writeBehindMaxObjects;
+        }
+
+        /**
+         * Builds a {@link Configuration}.
+         */
+        public static final class Builder {
+            private String databaseName = "sabres.db";
+            private Synchronous synchronous;
+            private Integer cacheSize;
+            private Long mmapSize;
+            private Integer pageSize;
+            private TempStore tempStore;
+            private Long journalSizeLimit;
+            private Integer walAutoCheckpoint;
+            private int connectionPoolSize = 4;
+            private boolean prefetchSchema = false;
+            private int indexMinQueries = 20;
+            private long indexMinAverageMillis = 5;
+            private int indexUnusedDays = 30;
+            private int resultCacheSize = 0;
+            private long resultCacheBytes = 0;
+            private long writeBehindWindowMillis = 0;
+            private int writeBehindMaxObjects = 0;
+
+            /**
+             * Sets the database file name. Defaults to sabres.db.
+             *
+             * @param databaseName The database file name.
+             * @return this, so that calls can be chained.
+             */
+            public Builder databaseName(String databaseName) {
+                if (databaseName == null || databaseName.isEmpty()) {
+                    throw new IllegalArgumentException("Database name must not be empty");
+                }
+
+                this.databaseName = databaseName;
+                return this;
+            }
+
+            /**
+             * Sets the synchronous pragma. NORMAL is safe in write ahead logging mode and is
+             * much faster than FULL for write heavy workloads. Only applies to the primary
+             * connection, which runs every write.
+             *
+             * @param synchronous The synchronous mode.
+             * @return this, so that calls can be chained.
+             */
+            public Builder synchronous(Synchronous synchronous) {
+                this.synchronous = synchronous;
+                return this;
+            }
+
+            /**
+             * Sets the cache_size pragma. Positive values are pages, negative values are KiB.
+             * <p>
+             * Only applies to the primary connection, which runs writes and transactions. The
+             * pooled connections Android opens for concurrent reads keep the default, since
+             * Android has no hook to configure them.
+             *
+             * @param cacheSize The page cache size.
+             * @return this, so that calls can be chained.
+             */
+            public Builder cacheSize(int cacheSize) {
+                this.cacheSize = cacheSize;
+                return this;
+            }
+
+            /**
+             * Sets the mmap_size pragma, the number of bytes of the database file to memory map.
+             * Only applies to the primary connection, like {@link #cacheSize(int)}.
+             *
+             * @param mmapSize The memory map window in bytes.
+             * @return this, so that calls can be chained.
+             */
+            public Builder mmapSize(long mmapSize) {
+                this.mmapSize = mmapSize;
+                return this;
+            }
+
+            /**
+             * Sets the page_size pragma. Only takes effect when the database file is created.
+             *
+             * @param pageSize The page size in bytes, a power of two between 512 and 65536.
+             * @return this, so that calls can be chained.
+             */
+            public Builder pageSize(int pageSize) {
+                if (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1) {
+                    throw new IllegalArgumentException(
+                        "Page size must be a power of two between 512 and 65536");
+                }
+
+                this.pageSize = pageSize;
+                return this;
+            }
+
+            /**
+             * Sets the temp_store pragma. Only applies to the primary connection, like
+             * {@link #cacheSize(int)}.
+             *
+             * @param tempStore Where temporary tables and indices are kept.
+             * @return this, so that calls can be chained.
+             */
+            public Builder tempStore(TempStore tempStore) {
+                this.tempStore = tempStore;
+                return this;
+            }
+
+            /**
+             * Sets the journal_size_limit pragma.
+             *
+             * @param journalSizeLimit The size in bytes the write ahead log is truncated to after
+             *                         a checkpoint, or -1 for no limit.
+             * @return this, so that calls can be chained.
+             */
+            public Builder journalSizeLimit(long journalSizeLimit) {
+                this.journalSizeLimit = journalSizeLimit;
+                return this;
+            }
+
+            /**
+             * Sets the wal_autocheckpoint pragma.
+             *
+             * @param walAutoCheckpoint The number of write ahead log pages that triggers a
+             *                          checkpoint, or 0 to disable automatic checkpoints.
+             * @return this, so that calls can be chained.
+             */
+            public Builder walAutoCheckpoint(int walAutoCheckpoint) {
+                this.walAutoCheckpoint = walAutoCheckpoint;
+                return this;
+            }
+
+            /**
+             * Sets the number of threads that run background reads, such as
+             * {@link SabresQuery#findInBackground()} and {@link SabresObject#fetchInBackground()}.
+             * Background writes are always queued on a single writer thread.
+             * <p>
+             * Defaults to 4, which matches the number of connections Android keeps for a
+             * database in write ahead logging mode. Android does not let applications change
+             * its own connection pool size, so more readers than that wait for a connection.
+             *
+             * @param connectionPoolSize The number of reader threads.
+             * @return this, so that calls can be chained.
+             */
+            public Builder connectionPoolSize(int connectionPoolSize) {
+                if (connectionPoolSize < 1) {
+                    throw new IllegalArgumentException("Connection pool size must be at least 1");
+                }
+
+                this.connectionPoolSize = connectionPoolSize;
+                return this;
+            }
+
+            /**
+             * Sets whether the schema of every registered SabresObject subclass is loaded on a
+             * background thread right after initialize. Otherwise each schema is loaded the
+             * first time its class is used. Defaults to false.
+             *
+             * @param prefetchSchema true to load all schemas in the background.
+             * @return this, so that calls can be chained.
+             */
+            public Builder prefetchSchema(boolean prefetchSchema) {
+                this.prefetchSchema = prefetchSchema;
+                return this;
+            }
+
+            /**
+             * Sets when indices are created and dropped automatically. Each query records the
+             * keys it filters and sorts by. An index on those keys is created once the same
+             * keys were queried minQueries times, or at least 3 times with an average latency
+             * of minAverageMillis or more. Automatic indices that were not used for unusedDays
+             * are dropped. Defaults to 20 queries, 5 ms and 30 days.
+             *
+             * @param minQueries       The number of queries that justify an index.
+             * @param minAverageMillis The average latency in milliseconds that justifies an
+             *                         index.
+             * @param unusedDays       The number of days an unused index is kept.
+             * @return this, so that calls can be chained.
+             */
+            public Builder autoIndex(int minQueries, long minAverageMillis, int unusedDays) {
+                if (minQueries < 1 || minAverageMillis < 0 || unusedDays < 1) {
+                    throw new IllegalArgumentException("Invalid automatic index thresholds");
+                }
+
+                this.indexMinQueries = minQueries;
+                this.indexMinAverageMillis = minAverageMillis;
+                this.indexUnusedDays = unusedDays;
+                return this;
+            }
+
+            /**
+             * Enables the query result cache. Results of finds, projections and aggregates are
+             * kept until a write to one of the tables they read, and the least recently used
+             * results are evicted past either limit. Larger results are not cached. Disabled by
+             * default, and not available before Honeycomb.
+             *
+             * @param maxResults The number of results that are kept.
+             * @param maxBytes   The estimated memory the results may take.
+             * @return this, so that calls can be chained.
+             * @see Sabres#printResultCache()
+             */
+            public Builder resultCache(int maxResults, long maxBytes) {
+                if (maxResults < 1 || maxBytes < 1) {
+                    throw new IllegalArgumentException("Result cache limits must be positive");
+                }
+
+                this.resultCacheSize = maxResults;
+                this.resultCacheBytes = maxBytes;
+                return this;
+            }
+
+            /**
+             * Enables write behind for {@link SabresObject#saveInBackground()}.
+             * <p>
+             * Saves issued within the window are merged into a single transaction on the writer
+             * thread, which is much cheaper than committing each object on its own. The group
+             * is written when the window elapses or when it reaches maxObjects, whichever comes
+             * first. Each Task returned by saveInBackground is resolved when the group commit
+             * lands. Since the group shares one transaction, an error saving one of the objects
+             * fails the Task of every object in the group. Disabled by default.
+             *
+             * @param windowMillis How long to wait for more saves before writing the group, in
+             *                     milliseconds. 0 disables write behind.
+             * @param maxObjects   The number of pending saves that triggers an immediate write.
+             * @return this, so that calls can be chained.
+             */
+            public Builder writeBehind(long windowMillis, int maxObjects) {
+                if (windowMillis < 0) {
+                    throw new IllegalArgumentException("Write behind window must not be negative");
+                }
+
+                if (maxObjects < 1) {
+                    throw new IllegalArgumentException(
+                        "Write behind max objects must be at least 1");
+                }
+
+                this.writeBehindWindowMillis = windowMillis;
+                this.writeBehindMaxObjects = maxObjects;
+                return this;
+            }
+
+            /**
+             * @return A new {@link Configuration}.
+             */
+            public Configuration build() {
+                return new Configuration(this);
+            }
+        }
+    }
+
+    /**
+     * Creates cursors with their arguments bound by type. rawQuery only takes String arguments,
+     * which do not compare equal to numbers in expressions that have no column affinity.
+     */
+    private static final class BindingCursorFactory implements SQLiteDatabase.CursorFactory {
+        private final SabresValue[] args;
+        // told when the query runs, or null for a query that is not measured.
+        private final MeasuredCursor.Listener listener;
+        private final long start = System.nanoTime();
+
+        BindingCursorFactory(SabresValue[] args) {
+            this(args, null);
+        }
+
+        BindingCursorFactory(SabresValue[] args, MeasuredCursor.Listener listener) {
+            this.args = args;
+            this.listener = listener;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+            String editTable, SQLiteQuery query) {
+            bind(query, args);
+            if (listener != null) {
+                return new MeasuredCursor(db, masterQuery, editTable, query, listener,
+                    System.nanoTime() - start);
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return new SQLiteCursor(masterQuery, editTable, query);
+            }
+
+            return new SQLiteCursor(db, masterQuery, editTable, query);
+        }
+    }
+
+    /**
+     * Measures the query when it runs, which is when the cursor fills its first window. Every
+     * move counts the rows first, so getCount sees the first access whatever it is. A cursor
+     * that is never read does not run its query, and is not counted.
+     */
+    private static final class MeasuredCursor extends SQLiteCursor {
+        private final Listener listener;
+        private final long prepareNanos;
+        private boolean measured = false;
+
+        @SuppressWarnings("deprecation")
+        MeasuredCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+            SQLiteQuery query, Listener listener, long prepareNanos) {
+            super(db, masterQuery, editTable, query);
+            this.listener = listener;
+            this.prepareNanos = prepareNanos;
+        }
+
+        @Override
+        public int getCount() {
+            if (!measured) {
+                measured = true;
+                final long start = System.nanoTime();
+                final int rows = super.getCount();
+                listener.onRun(rows, prepareNanos + System.nanoTime() - start);
+                return rows;
+            }
+
+            return super.getCount();
+        }
+
+        interface Listener {
+            void onRun(int rows, long elapsedNanos);
+        }
+    }
+
+    private static final class LaneThreadFactory implements ThreadFactory {
+        private final String lane;
+        private final AtomicInteger count = new AtomicInteger();
+
+        LaneThreadFactory(String lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, String.format("Sabres-%s-%d", lane,
+                count.incrementAndGet()));
+        }
+    }
 }
@@ -62,6 +62,10 @@ final class SabresList {
     }
 
     private void create(Sabres sabres) throws SabresException {
+        if (SqliteMaster.tableExists(sabres, getTableName())) {
+            return;
+        }
+
         CreateTableCommand createCommand = new CreateTableCommand(getTableName()).ifNotExists().
             withColumn(new Column(PARENT_ID_KEY, SqlType.Integer).foreignKeyIn(parent).notNull()).
             withColumn(new Column(VALUE_KEY, SqlType.Text).notNull()).
@@ -73,8 +77,8 @@ final class SabresList {
 
         sabres.beginTransaction();
         try {
-            sabres.execSQL(createCommand.toSql());
-            sabres.execSQL(indexCommand.toSql());
+            SqliteMaster.createTable(sabres, createCommand);
+            SqliteMaster.createIndex(sabres, indexCommand);
             sabres.setTransactionSuccessful();
         } finally {
             sabres.endTransaction();
@@ -88,41 +92,9 @@ final class SabresList {
             SelectCommand command = new SelectCommand(getTableName(),
                 Arrays.asList(selectKeys)).where(Where.equalTo(PARENT_ID_KEY,
                 new LongValue(parentId)));
-            c = sabres.select(command.toSql());
+            c = sabres.select(command.toSql(), command.getArgs());
             for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-                switch (descriptor.getOfType()) {
-                    case Integer:
-                        list.add(CursorHelper.getInt(c, VALUE_KEY));
-                        break;
-                    case Double:
-                        list.add(CursorHelper.getDouble(c, VALUE_KEY));
-                        break;
-                    case Float:
-                        list.add(CursorHelper.getFloat(c, VALUE_KEY));
-                        break;
-                    case String:
-                        list.add(CursorHelper.getString(c, VALUE_KEY));
-                        break;
-                    case Byte:
-                        list.add(CursorHelper.getByte(c, VALUE_KEY));
-                        break;
-                    case Short:
-                        list.add(CursorHelper.getShort(c, VALUE_KEY));
-                        break;
-                    case Long:
-                        list.add(CursorHelper.getLong(c, VALUE_KEY));
-                        break;
-                    case Boolean:
-                        list.add(CursorHelper.getBoolean(c, VALUE_KEY));
-                        break;
-                    case Date:
-                        list.add(CursorHelper.getDate(c, VALUE_KEY));
-                        break;
-                    case Pointer:
-                        list.add(SabresObject.createWithoutData(descriptor.getName(),
-                            CursorHelper.getLong(c, VALUE_KEY)));
-                        break;
-                }
+                list.add(getValue(c, descriptor));
             }
         } finally {
             if (c != null) {
@@ -134,6 +106,76 @@ final class SabresList {
         return (List<T>)list;
     }
 
+    /**
+     * Selects the lists of many parents, with one query per chunk of parent ids.
+     *
+     * @return the lists by parent id. Parents without values have no entry.
+     */
+    static Map<Long, List<Object>> select(Sabres sabres, String parent, String parentKey,
+        SabresDescriptor descriptor, List<Long> parentIds) throws SabresException {
+        Map<Long, List<Object>> lists = new HashMap<>();
+        final String table = getTableName(parent, parentKey);
+        if (!SqliteMaster.tableExists(sabres, table)) {
+            return lists;
+        }
+
+        for (int start = 0; start < parentIds.size(); start += Sabres.MAX_VARIABLES) {
+            List<Long> chunk = parentIds.subList(start,
+                Math.min(parentIds.size(), start + Sabres.MAX_VARIABLES));
+            Cursor c = null;
+            try {
+                SelectCommand command = new SelectCommand(table, Arrays.asList(selectKeys)).
+                    where(Where.in(PARENT_ID_KEY, chunk));
+                c = sabres.selectCached(command.toSql(), command.getArgs(),
+                    Collections.singleton(table));
+                for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                    final long parentId = CursorHelper.getLong(c, PARENT_ID_KEY);
+                    List<Object> list = lists.get(parentId);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        lists.put(parentId, list);
+                    }
+                    list.add(getValue(c, descriptor));
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        }
+
+        return lists;
+    }
+
+    private static Object getValue(Cursor c, SabresDescriptor descriptor) {
+        switch (descriptor.getOfType()) {
+            case Integer:
+                return CursorHelper.getInt(c, VALUE_KEY);
+            case Double:
+                return CursorHelper.getDouble(c, VALUE_KEY);
+            case Float:
+                return CursorHelper.getFloat(c, VALUE_KEY);
+            case String:
+                return CursorHelper.getString(c, VALUE_KEY);
+            case Byte:
+                return CursorHelper.getByte(c, VALUE_KEY);
+            case Short:
+                return CursorHelper.getShort(c, VALUE_KEY);
+            case Long:
+                return CursorHelper.getLong(c, VALUE_KEY);
+            case Boolean:
+                return CursorHelper.getBoolean(c, VALUE_KEY);
+            case Date:
+                return CursorHelper.getDate(c, VALUE_KEY);
+            case Pointer:
+                return SabresObject.createWithoutData(descriptor.getName(),
+                    CursorHelper.getLong(c, VALUE_KEY));
+        }
+
+        throw new IllegalStateException(String.format("Unexpected list type %s",
+            descriptor.getOfType()));
+    }
+
     private void deleteOthers(Sabres sabres, long parentId, List<?> list) throws SabresException {
         Where where = null;
         for (Object o : list) {
@@ -145,7 +187,9 @@ final class SabresList {
         }
 
         where = Where.equalTo(PARENT_ID_KEY, new LongValue(parentId)).and(where);
-        sabres.execSQL(new DeleteCommand(getTableName()).where(where).toSql());
+        DeleteCommand command = new DeleteCommand(getTableName()).where(where);
+        sabres.executeUpdateDelete(command.toSql(), command.getArgs());
+        sabres.invalidate(getTableName());
     }
 
     void insert(Sabres sabres, long parentId, List<?> list)
@@ -157,8 +201,10 @@ final class SabresList {
                 Map<String, SabresValue> values = new HashMap<>();
                 values.put(PARENT_ID_KEY, new LongValue(parentId));
                 values.put(VALUE_KEY, SabresValue.create(o));
-                sabres.insert(new InsertCommand(getTableName(), values).toSql());
+                InsertCommand command = new InsertCommand(getTableName(), values);
+                sabres.insert(command.toSql(), command.getArgs());
             }
+            sabres.invalidate(getTableName());
             sabres.setTransactionSuccessful();
         } finally {
             sabres.endTransaction();
@@ -26,6 +26,9 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -96,6 +99,8 @@ abstract public class SabresObject {
     private final Set<String> dirtyKeys = new HashSet<>();
     private final String name;
     private boolean dataAvailable = false;
+    // list keys left for populateLists to fill.
+    private Set<String> deferredLists;
     private long id = 0;
 
     protected SabresObject() {
@@ -161,12 +166,32 @@ abstract public class SabresObject {
         locks.put(subClass.getSimpleName(), new Object());
     }
 
+    /**
+     * Enables full text search on a String key of a registered subclass.
+     * <p>
+     * Sabres keeps a full text index of the key in sync with every save and delete, which
+     * {@link SabresQuery#whereMatches(String, String)} searches. Objects saved before the key
+     * was enabled are indexed by {@link Sabres#initialize}.
+     * <p>
+     * Needs to be called before {@link Sabres#initialize}.
+     *
+     * @param subClass The registered subclass type.
+     * @param key      The String key to index.
+     */
+    public static void enableFullTextSearch(Class<? extends SabresObject> subClass,
+        String key) {
+        FullTextIndex.enable(subClass.getSimpleName(), key);
+    }
+
     public static String getObjectIdKey() {
         return OBJECT_ID_KEY;
     }
 
     private static String toString(String name, List<SabresObject> objects) {
         Map<String, SabresDescriptor> schema = Schema.getSchema(name);
+        if (schema == null) {
+            schema = Collections.emptyMap();
+        }
         String[] headers = new String[schema.size() + 1];
         String[][] data = new String[objects.size()][schema.size() + 1];
         int i = 0;
@@ -204,7 +229,7 @@ abstract public class SabresObject {
      * @param clazz the class to print.
      */
     public static <T extends SabresObject> void printAll(final Class<T> clazz) {
-        Task.callInBackground(new Callable<String>() {
+        Sabres.callInReader(new Callable<String>() {
             @Override
             public String call() throws Exception {
                 Sabres sabres = Sabres.self();
@@ -212,8 +237,9 @@ abstract public class SabresObject {
                 Cursor c = null;
                 try {
                     if (SqliteMaster.tableExists(sabres, clazz.getSimpleName())) {
-                        c = sabres.select(new SelectCommand(clazz.getSimpleName(),
-                            Schema.getKeys(clazz.getSimpleName())).toSql());
+                        SelectCommand command = new SelectCommand(clazz.getSimpleName(),
+                            Schema.getKeys(sabres, clazz.getSimpleName()));
+                        c = sabres.select(command.toSql(), command.getArgs());
                         List<SabresObject> objects = new ArrayList<>();
                         for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
                             T object = SabresObject.createObjectInstance(clazz);
@@ -295,7 +321,7 @@ abstract public class SabresObject {
      * @return A Task that is resolved when saveAll completes.
      */
     public static <T extends SabresObject> Task<Void> saveAllInBackground(final List<T> objects) {
-        return Task.callInBackground(new Callable<Void>() {
+        return Sabres.callInWriter(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 saveAll(objects);
@@ -331,14 +357,21 @@ abstract public class SabresObject {
      */
     public static <T extends SabresObject> void fetchAllIfNeeded(List<T> objects)
         throws SabresException {
+        List<T> fetch = new ArrayList<>(objects.size());
+        for (T o : objects) {
+            if (!o.isDataAvailable()) {
+                fetch.add(o);
+            }
+        }
+
+        if (fetch.isEmpty()) {
+            return;
+        }
+
         final Sabres sabres = Sabres.self();
         sabres.open();
         try {
-            for (T o : objects) {
-                if (!o.isDataAvailable()) {
-                    o.fetch(sabres);
-                }
-            }
+            fetchAll(sabres, fetch);
         } finally {
             sabres.close();
         }
@@ -352,7 +385,7 @@ abstract public class SabresObject {
      */
     public static <T extends SabresObject> Task<Void> fetchAllIfNeededInBackground(
         final List<T> objects) {
-        return Task.callInBackground(new Callable<Void>() {
+        return Sabres.callInReader(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 fetchAllIfNeeded(objects);
@@ -388,14 +421,77 @@ abstract public class SabresObject {
         final Sabres sabres = Sabres.self();
         sabres.open();
         try {
-            for (T o : objects) {
-                o.fetch(sabres);
-            }
+            fetchAll(sabres, objects);
         } finally {
             sabres.close();
         }
     }
 
+    /**
+     * Fetches the objects grouped by class, with one select per chunk of object ids.
+     * Every object that exists is populated. Then, if some did not exist, OBJECT_NOT_FOUND is
+     * thrown for the first of them.
+     */
+    private static <T extends SabresObject> void fetchAll(Sabres sabres, List<T> objects)
+        throws SabresException {
+        Map<String, Map<Long, List<SabresObject>>> classes = new LinkedHashMap<>();
+        for (SabresObject o : objects) {
+            Map<Long, List<SabresObject>> ids = classes.get(o.name);
+            if (ids == null) {
+                ids = new LinkedHashMap<>();
+                classes.put(o.name, ids);
+            }
+
+            // the same object may appear more than once, or as different instances.
+            List<SabresObject> instances = ids.get(o.id);
+            if (instances == null) {
+                instances = new ArrayList<>(1);
+                ids.put(o.id, instances);
+            }
+            instances.add(o);
+        }
+
+        Set<SabresObject> found = Collections.newSetFromMap(
+            new IdentityHashMap<SabresObject, Boolean>());
+        for (Map.Entry<String, Map<Long, List<SabresObject>>> entry : classes.entrySet()) {
+            final String name = entry.getKey();
+            List<Long> ids = new ArrayList<>(entry.getValue().keySet());
+            List<String> keys = Schema.getKeys(sabres, name);
+            List<SabresObject> populated = new ArrayList<>(ids.size());
+            for (int start = 0; start < ids.size(); start += Sabres.MAX_VARIABLES) {
+                List<Long> chunk = ids.subList(start,
+                    Math.min(ids.size(), start + Sabres.MAX_VARIABLES));
+                Cursor c = null;
+                try {
+                    SelectCommand command = new SelectCommand(name, keys).
+                        where(Where.in(OBJECT_ID_KEY, chunk));
+                    c = sabres.select(command.toSql(), command.getArgs());
+                    for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                        final long id = CursorHelper.getLong(c, OBJECT_ID_KEY);
+                        for (SabresObject o : entry.getValue().get(id)) {
+                            o.populateWithoutLists(sabres, c);
+                            populated.add(o);
+                            found.add(o);
+                        }
+                    }
+                } finally {
+                    if (c != null) {
+                        c.close();
+                    }
+                }
+            }
+
+            populateLists(sabres, name, populated);
+        }
+
+        for (SabresObject o : objects) {
+            if (!found.contains(o)) {
+                throw new SabresException(SabresException.OBJECT_NOT_FOUND,
+                    String.format("table %s has no object with key %s", o.name, o.id));
+            }
+        }
+    }
+
     /**
      * Fetches all the objects in the provided list in a background thread.
      *
@@ -403,7 +499,7 @@ abstract public class SabresObject {
      * @return A Task that is resolved when fetch completes.
      */
     public static <T extends SabresObject> Task<Void> fetchAllInBackground(final List<T> objects) {
-        return Task.callInBackground(new Callable<Void>() {
+        return Sabres.callInReader(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 fetchAll(objects);
@@ -442,8 +538,10 @@ abstract public class SabresObject {
             String table = clazz.getSimpleName();
 
             if (SqliteMaster.tableExists(sabres, table)) {
+                FullTextIndex.drop(sabres, table);
                 dropTable(sabres, table);
-                createTable(sabres, Schema.getSchema(table), table);
+                createTable(sabres, Schema.load(sabres, table), table);
+                FullTextIndex.create(sabres, table);
             }
 
             sabres.setTransactionSuccessful();
@@ -480,7 +578,7 @@ abstract public class SabresObject {
      * @return A Task that is resolved when deleteAll completes.
      */
     public static <T extends SabresObject> Task<Void> deleteAllInBackground(final Class<T> clazz) {
-        return Task.callInBackground(new Callable<Void>() {
+        return Sabres.callInWriter(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 deleteAll(clazz);
@@ -512,7 +610,7 @@ abstract public class SabresObject {
      * @return A Task that is resolved when deleteAll completes.
      */
     public static <T extends SabresObject> Task<Void> deleteAllInBackground(final List<T> objects) {
-        return Task.callInBackground(new Callable<Void>() {
+        return Sabres.callInWriter(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 deleteAll(objects);
@@ -595,7 +693,7 @@ abstract public class SabresObject {
         }
 
         Map<String, SabresDescriptor> schema = Schema.getSchema(name);
-        if (value == null && (schema == null || !schema.containsKey(key))) {
+        if (value == null && schema != null && !schema.containsKey(key)) {
             // clearing a value that does not exist..
             return;
         }
@@ -911,11 +1009,20 @@ abstract public class SabresObject {
      * <p>
      * This is preferable to using {@link #save()} ,
      * unless your code is already running from a background thread.
+     * <p>
+     * When write behind is enabled with
+     * {@link Sabres.Configuration.Builder#writeBehind(long, int)}, the save may be grouped with
+     * other saves into a single transaction.
      *
      * @return A Task that is resolved when the save completes.
      */
     public Task<Void> saveInBackground() {
-        return Task.callInBackground(new Callable<Void>() {
+        WriteBehindQueue queue = Sabres.writeBehindQueue();
+        if (queue != null) {
+            return queue.save(this);
+        }
+
+        return Sabres.callInWriter(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 save();
@@ -955,13 +1062,40 @@ abstract public class SabresObject {
             put(CREATED_AT_KEY, new Date());
         }
 
+        Map<String, SabresDescriptor> schema;
         synchronized (locks.get(name)) {
-            Map<String, SabresDescriptor> schema = schemaChanges.get(name);
+            schema = Schema.load(sabres, name);
+            Map<String, SabresDescriptor> changes = schemaChanges.remove(name);
+            if (changes != null) {
+                // keys put before the schema was loaded may already exist.
+                Map<String, SabresDescriptor> missing = new HashMap<>();
+                for (Map.Entry<String, SabresDescriptor> entry : changes.entrySet()) {
+                    if (!schema.containsKey(entry.getKey())) {
+                        missing.put(entry.getKey(), entry.getValue());
+                    }
+                }
 
-            if (schema != null && !schema.isEmpty()) {
-                Schema.update(sabres, name, schema);
-                updateTable(sabres, schema);
-                schemaChanges.remove(name);
+                if (!missing.isEmpty()) {
+                    Schema.update(sabres, name, missing);
+                    updateTable(sabres, missing);
+                }
+            }
+        }
+
+        Iterator<String> it = dirtyKeys.iterator();
+        while (it.hasNext()) {
+            String key = it.next();
+            SabresDescriptor descriptor = values.get(key).getDescriptor();
+            if (descriptor.getType().equals(SabresDescriptor.Type.Null)) {
+                if (!schema.containsKey(key)) {
+                    // cleared a key that never existed, before the schema was loaded.
+                    values.remove(key);
+                    it.remove();
+                }
+            } else if (schema.containsKey(key) && !schema.get(key).equals(descriptor)) {
+                throw new SabresException(SabresException.OTHER_CAUSE,
+                    String.format("Cannot set key %s to type %s. Already set to type %s", key,
+                        descriptor.toString(), schema.get(key).toString()));
             }
         }
 
@@ -1007,6 +1141,8 @@ abstract public class SabresObject {
         } else {
             createTable(sabres, schema);
         }
+
+        FullTextIndex.create(sabres, name);
     }
 
     private static void createTable(Sabres sabres, Map<String, SabresDescriptor> schema,
@@ -1022,7 +1158,7 @@ abstract public class SabresObject {
             createCommand.withColumn(column);
         }
 
-        sabres.execSQL(createCommand.toSql());
+        SqliteMaster.createTable(sabres, createCommand);
     }
 
     private void createTable(Sabres sabres, Map<String, SabresDescriptor> schema) throws
@@ -1035,11 +1171,13 @@ abstract public class SabresObject {
             sabres.execSQL(new AlterTableCommand(name, new Column(entry.getKey(),
                     entry.getValue().toSqlType())).toSql());
         }
+
+        sabres.invalidate(name);
     }
 
     private static void dropTable(Sabres sabres, String table) throws SabresException {
         DropTableCommand dropTableCommand = new DropTableCommand(table).ifExists();
-        sabres.execSQL(dropTableCommand.toSql());
+        SqliteMaster.dropTable(sabres, dropTableCommand);
     }
 
     private void updateChildren(Sabres sabres) throws SabresException {
@@ -1066,7 +1204,11 @@ abstract public class SabresObject {
     }
 
     private long insert(Sabres sabres) throws SabresException {
-        return sabres.insert(new InsertCommand(name, values).toSql());
+        InsertCommand command = new InsertCommand(name, values);
+        long rowId = sabres.insert(command.toSql(), command.getArgs());
+        FullTextIndex.insert(sabres, name, rowId, values);
+        sabres.invalidate(name);
+        return rowId;
     }
 
     private void update(Sabres sabres) throws SabresException {
@@ -1077,15 +1219,17 @@ abstract public class SabresObject {
 
         UpdateCommand command = new UpdateCommand(name, dirtyValues);
         command.where(Where.equalTo(OBJECT_ID_KEY, new LongValue(id)));
-        sabres.execSQL(command.toSql());
+        sabres.executeUpdateDelete(command.toSql(), command.getArgs());
+        FullTextIndex.update(sabres, name, id, dirtyValues);
+        sabres.invalidate(name);
     }
 
     void fetch(Sabres sabres) throws SabresException {
         Cursor c = null;
         try {
-            SelectCommand command = new SelectCommand(name, Schema.getKeys(name)).
+            SelectCommand command = new SelectCommand(name, Schema.getKeys(sabres, name)).
                 where(Where.equalTo(OBJECT_ID_KEY, new LongValue(id)));
-            c = sabres.select(command.toSql());
+            c = sabres.select(command.toSql(), command.getArgs());
             if (!c.moveToFirst()) {
                 throw new SabresException(SabresException.OBJECT_NOT_FOUND,
                     String.format("table %s has no object with key %s", name, id));
@@ -1167,7 +1311,7 @@ abstract public class SabresObject {
      * @return A Task that is resolved when the fetch completes.
      */
     public Task<Void> fetchInBackground() {
-        return Task.callInBackground(new Callable<Void>() {
+        return Sabres.callInReader(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 fetch();
@@ -1229,7 +1373,13 @@ abstract public class SabresObject {
      * @return a Set of all the keys in this object.
      */
     public Set<String> keySet() {
-        return Schema.getSchema(name).keySet();
+        Map<String, SabresDescriptor> schema = Schema.getSchema(name);
+        if (schema == null) {
+            // the schema was not loaded yet, so the only known keys are the ones set locally.
+            return Collections.unmodifiableSet(values.keySet());
+        }
+
+        return schema.keySet();
     }
 
     void populate(Sabres sabres, Cursor c) throws SabresException {
@@ -1276,8 +1426,62 @@ abstract public class SabresObject {
     }
 
     void populate(Sabres sabres, Cursor c, String prefix) throws SabresException {
+        populate(sabres, c, prefix, true);
+    }
+
+    /**
+     * Populates this object from the cursor row, except for its lists, which are left for
+     * {@link #populateLists(Sabres, String, List)} to load for a whole result set at once.
+     */
+    void populateWithoutLists(Sabres sabres, Cursor c) throws SabresException {
+        populate(sabres, c, null, false);
+    }
+
+    /**
+     * Loads the lists of objects populated with {@link #populateWithoutLists(Sabres, Cursor)},
+     * with one query per list key instead of one per object and key.
+     */
+    static <T extends SabresObject> void populateLists(Sabres sabres, String name,
+        List<T> objects) throws SabresException {
+        if (objects.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, SabresDescriptor> entry : Schema.load(sabres, name).entrySet()) {
+            if (!entry.getValue().getType().equals(SabresDescriptor.Type.List)) {
+                continue;
+            }
+
+            final String key = entry.getKey();
+            List<Long> parentIds = new ArrayList<>();
+            for (SabresObject object : objects) {
+                if (object.deferredLists != null && object.deferredLists.contains(key)) {
+                    parentIds.add(object.id);
+                }
+            }
+
+            if (parentIds.isEmpty()) {
+                continue;
+            }
+
+            Map<Long, List<Object>> lists = SabresList.select(sabres, name, key,
+                entry.getValue(), parentIds);
+            for (SabresObject object : objects) {
+                if (object.deferredLists != null && object.deferredLists.remove(key)) {
+                    List<Object> list = lists.get(object.id);
+                    // an empty list has no rows and no value, like a list that was never set.
+                    if (list != null) {
+                        object.values.put(key, SabresValue.create(list));
+                    }
+                }
+            }
+        }
+    }
+
+    private void populate(Sabres sabres, Cursor c, String prefix, boolean withLists)
+        throws SabresException {
         id = CursorHelper.getLong(c, OBJECT_ID_KEY);
-        Map<String, SabresDescriptor> schema = Schema.getSchema(name);
+        Map<String, SabresDescriptor> schema = Schema.load(sabres, name);
 
         for (Map.Entry<String, SabresDescriptor> entry : schema.entrySet()) {
             if (c.getColumnIndex(getCursorKey(prefix, entry.getKey())) != -1 &&
@@ -1328,9 +1532,16 @@ abstract public class SabresObject {
                         value = new ObjectValue<>(object);
                         break;
                     case List:
-                        List<?> list = SabresList.get(sabres, name, entry.getKey()).
-                            select(sabres, id, entry.getValue());
-                        value = SabresValue.create(list);
+                        if (withLists) {
+                            List<?> list = SabresList.get(sabres, name, entry.getKey()).
+                                select(sabres, id, entry.getValue());
+                            value = SabresValue.create(list);
+                        } else {
+                            if (deferredLists == null) {
+                                deferredLists = new HashSet<>();
+                            }
+                            deferredLists.add(entry.getKey());
+                        }
                         break;
                 }
 
@@ -1343,6 +1554,14 @@ abstract public class SabresObject {
         dataAvailable = true;
     }
 
+    SabresValue getSabresValue(String key) {
+        if (key.equals(OBJECT_ID_KEY)) {
+            return new LongValue(id);
+        }
+
+        return values.get(key);
+    }
+
     void populateChild(Sabres sabres, Cursor c, String key) throws SabresException {
         SabresValue value = values.get(key);
         if (value == null) {
@@ -1387,8 +1606,11 @@ abstract public class SabresObject {
     }
 
     void deleteInTransaction(Sabres sabres) throws SabresException {
-        sabres.execSQL(new DeleteCommand(name).where(Where.equalTo(OBJECT_ID_KEY,
-            new LongValue(id))).toSql());
+        DeleteCommand command = new DeleteCommand(name).where(Where.equalTo(OBJECT_ID_KEY,
+            new LongValue(id)));
+        sabres.executeUpdateDelete(command.toSql(), command.getArgs());
+        FullTextIndex.delete(sabres, name, id);
+        sabres.invalidate(name);
     }
 
     /**
@@ -1400,7 +1622,7 @@ abstract public class SabresObject {
      * @return A Task that is resolved when delete completes.
      */
     public Task<Void> deleteInBackground() {
-        return Task.callInBackground(new Callable<Void>() {
+        return Sabres.callInWriter(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 delete();
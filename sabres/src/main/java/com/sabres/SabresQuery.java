@@ -17,11 +17,18 @@
 package com.sabres;
 
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 
 import bolts.Continuation;
@@ -88,17 +95,38 @@ import bolts.Task;
  */
 public class SabresQuery<T extends SabresObject> {
     private static final String TAG = SabresQuery.class.getSimpleName();
+    private static final Set<SabresDescriptor.Type> NUMBER_TYPES =
+        EnumSet.of(SabresDescriptor.Type.Integer, SabresDescriptor.Type.Byte,
+            SabresDescriptor.Type.Short, SabresDescriptor.Type.Long, SabresDescriptor.Type.Float,
+            SabresDescriptor.Type.Double);
+    // stored as integers, a Date as milliseconds and a Pointer as the object id.
+    private static final Set<SabresDescriptor.Type> INTEGRAL_TYPES =
+        EnumSet.of(SabresDescriptor.Type.Integer, SabresDescriptor.Type.Byte,
+            SabresDescriptor.Type.Short, SabresDescriptor.Type.Long, SabresDescriptor.Type.Boolean,
+            SabresDescriptor.Type.Date, SabresDescriptor.Type.Pointer);
+    private static final Set<SabresDescriptor.Type> SCALAR_TYPES =
+        EnumSet.complementOf(EnumSet.of(SabresDescriptor.Type.List, SabresDescriptor.Type.Null));
     private final String name;
     private final Class<T> clazz;
+    // keys compared for equality lead an index, in any order, the other where keys follow.
+    private final Set<String> equalityKeys = new TreeSet<>();
     private final List<String> keyIndices = new ArrayList<>();
     private final List<String> includes = new ArrayList<>();
     private final List<OrderBy> orderByList = new ArrayList<>();
     private final List<SabresQuery<T>> innerQueries;
     private final List<String> selectKeys = new ArrayList<>();
+    // full text matches, as key and query pairs.
+    private final List<String[]> matches = new ArrayList<>();
+    // pointer keys that must or must not point to an object of an inner query.
+    private final List<Subquery> subqueries = new ArrayList<>();
+    // conditions whose sql depends on the database, rendered when the query runs.
+    private final List<Condition> conditions = new ArrayList<>();
     private Where where;
     private Integer limit;
     private Integer skip;
     private SelectCommand innerSelect;
+    private T after;
+    private boolean orderByRelevance = false;
 
     /**
      * Constructs a query for a SabresObject subclass type.
@@ -141,6 +169,9 @@ public class SabresQuery<T extends SabresObject> {
      * are disregarded for the inner queries. Calling those functions on the returned query will
      * have the desired effect.
      * Calling where* functions on the return query is not permitted.
+     * <p>
+     * The object ids of each inner query are selected on their own and combined with a union,
+     * so each inner query can use the index of its own keys.
      *
      * @param queries The list of ParseQuerys to 'or' together.
      * @return A ParseQuery that is the 'or' of the passed in queries.
@@ -149,19 +180,48 @@ public class SabresQuery<T extends SabresObject> {
         return new SabresQuery<>(queries);
     }
 
-    private void createIndices(Sabres sabres)
-        throws SabresException {
-        if (innerQueries == null) {
-            if (!keyIndices.isEmpty()) {
-                CreateIndexCommand createIndexCommand =
-                    new CreateIndexCommand(name, keyIndices).ifNotExists();
-                sabres.execSQL(createIndexCommand.toString());
-            }
-        } else {
+    String getName() {
+        return name;
+    }
+
+    // tells the index advisor which keys this query filtered and sorted by.
+    private void recordShape(Sabres sabres, boolean ordered, long elapsedNanos) {
+        if (innerQueries != null) {
             for (SabresQuery q : innerQueries) {
-                q.createIndices(sabres);
+                q.recordShape(sabres, false, elapsedNanos);
+            }
+
+            return;
+        }
+
+        for (Subquery subquery : subqueries) {
+            subquery.query.recordShape(sabres, false, elapsedNanos);
+        }
+
+        // sorted, so the same keys in another call order make the same shape.
+        List<String> columns = new ArrayList<>();
+        for (String key : equalityKeys) {
+            addShapeColumn(columns, key);
+        }
+
+        for (String key : keyIndices) {
+            addShapeColumn(columns, key);
+        }
+
+        if (ordered) {
+            for (OrderBy orderBy : orderByList) {
+                addShapeColumn(columns, orderBy.getKey());
             }
         }
+
+        sabres.getIndexAdvisor().record(name, columns, elapsedNanos);
+    }
+
+    private static void addShapeColumn(List<String> columns, String key) {
+        // the object id is the rowid, which every index ends with implicitly.
+        if (!key.equals(SabresObject.getObjectIdKey()) && !columns.contains(key)) {
+            columns.add(key);
+        }
     }
 
     /**
@@ -203,6 +263,181 @@ public class SabresQuery<T extends SabresObject> {
         return this;
     }
 
+    /**
+     * Restricts the results to the objects that come after the given object in this query's
+     * order. This is the efficient way to paginate: pass the last object of the previous page,
+     * together with {@link #setLimit(int)}. Unlike {@link #setSkip(int)}, which makes the
+     * database step over every skipped row, each page costs the same no matter how deep it is.
+     * <p>
+     * The object id is used as the last sort key, in the direction of the last order, so objects
+     * with equal keys are neither repeated nor skipped between pages, and a single index on the
+     * order keys serves the order. The lastObject needs to hold the values of every key
+     * this query is ordered by, the query throws an IllegalStateException otherwise. A key that
+     * is null in the database is not held by a fetched object, put null for it explicitly. The
+     * order should be set before calling this.
+     * <pre>
+     * {@code
+     * SabresQuery<Post> query = SabresQuery.getQuery(Post.class).
+     *     addDescendingOrder("date").
+     *     setLimit(20);
+     * List<Post> page = query.find();
+     * List<Post> nextPage = query.after(page.get(page.size() - 1)).find();
+     * }
+     * </pre>
+     *
+     * @param lastObject The last object of the previous page, or null to start from the first.
+     * @return this, so you can chain this call.
+     */
+    public SabresQuery<T> after(T lastObject) {
+        if (lastObject != null && lastObject.getObjectId() == 0) {
+            throw new IllegalArgumentException("Cannot page after an object that was not saved");
+        }
+
+        after = lastObject;
+        return this;
+    }
+
+    // breaks ties in the direction of the last order, so a single index on the order keys
+    // serves the whole order, the object id being the rowid every index ends with.
+    private OrderBy.Direction getTieBreakDirection() {
+        return orderByList.isEmpty() ? OrderBy.Direction.Ascending :
+            orderByList.get(orderByList.size() - 1).getDirection();
+    }
+
+    // the rows that come after the object, in a single condition.
+    private Where createAfterRowsWhere() {
+        if (after == null) {
+            return null;
+        }
+
+        Where seek = createSeekWhere();
+        Where tail = createTailWhere();
+        return tail == null ? seek : seek.or(tail);
+    }
+
+    // (k0, k1, .., objectId) > (v0, v1, .., id), expanded since row values are not supported
+    // by the SQLite versions Android ships. Only the rows whose first key is on the same side
+    // of null as the object's are sought, see createTailWhere().
+    private Where createSeekWhere() {
+        List<OrderBy> orders = new ArrayList<>(orderByList);
+        orders.add(new OrderBy(SabresObject.getObjectIdKey(), getTieBreakDirection()));
+        Where seek = null;
+        for (int i = 0; i < orders.size(); i++) {
+            Where term = createAfterWhere(orders.get(i), i == 0);
+            if (term == null) {
+                continue;
+            }
+
+            for (int j = 0; j < i; j++) {
+                term.and(createEqualWhere(orders.get(j)));
+            }
+
+            if (seek == null) {
+                seek = term;
+            } else {
+                seek.or(term);
+            }
+        }
+
+        // the same rows, with a range on the first key that sqlite can seek an index to.
+        if (orders.size() > 1) {
+            seek = createBoundWhere(orders.get(0)).and(seek);
+        }
+
+        return seek;
+    }
+
+    /**
+     * Nulls sort first, so the rows after a non null value in descending order, or after a null
+     * in ascending order, include every row whose first key is on the other side of null. Each
+     * side is a range of an index on its own, but the or of the two is not, so the other side
+     * is a seek of its own, which comes after the rows of the first.
+     *
+     * @return the rows on the other side of null, or null if no row after the object is.
+     */
+    private Where createTailWhere() {
+        if (after == null || orderByList.isEmpty()) {
+            return null;
+        }
+
+        final OrderBy first = orderByList.get(0);
+        if (first.getKey().equals(SabresObject.getObjectIdKey())) {
+            return null;
+        }
+
+        final String key = getQualifiedKey(first.getKey());
+        final boolean isNull = getAfterValue(first.getKey()) instanceof NullValue;
+        if (first.getDirection().equals(OrderBy.Direction.Ascending)) {
+            return isNull ? Where.isNot(key, new NullValue(null)) : null;
+        }
+
+        return isNull ? null : Where.is(key, new NullValue(null));
+    }
+
+    private SabresValue getAfterValue(String key) {
+        SabresValue value = after.getSabresValue(key);
+        if (value == null) {
+            throw new IllegalStateException(String.format("The object to page after has no " +
+                "value for the order key %s", key));
+        }
+
+        return value;
+    }
+
+    // every sought row has a first key on this side of the object's, and the same side of null.
+    private Where createBoundWhere(OrderBy orderBy) {
+        final String key = getQualifiedKey(orderBy.getKey());
+        SabresValue value = getAfterValue(orderBy.getKey());
+        if (value instanceof NullValue) {
+            return Where.is(key, value);
+        }
+
+        if (orderBy.getDirection().equals(OrderBy.Direction.Ascending)) {
+            return Where.greaterThanOrEqual(key, value);
+        }
+
+        return Where.lessThanOrEqual(key, value);
+    }
+
+    // joined tables have the same object id and date keys.
+    private String getQualifiedKey(String key) {
+        return String.format("%s.%s", name, key);
+    }
+
+    private Where createEqualWhere(OrderBy orderBy) {
+        final String key = getQualifiedKey(orderBy.getKey());
+        SabresValue value = getAfterValue(orderBy.getKey());
+        if (value instanceof NullValue) {
+            return Where.is(key, value);
+        }
+
+        return Where.equalTo(key, value);
+    }
+
+    /**
+     * @param bounded true for the first key, whose rows on the other side of null are left to
+     *                the tail.
+     */
+    private Where createAfterWhere(OrderBy orderBy, boolean bounded) {
+        final String key = getQualifiedKey(orderBy.getKey());
+        SabresValue value = getAfterValue(orderBy.getKey());
+        if (orderBy.getDirection().equals(OrderBy.Direction.Ascending)) {
+            if (value instanceof NullValue) {
+                return bounded ? null : Where.isNot(key, value);
+            }
+
+            return Where.greaterThan(key, value);
+        }
+
+        // nulls sort first, so nothing comes after a null in descending order.
+        if (value instanceof NullValue) {
+            return null;
+        }
+
+        Where term = Where.lessThan(key, value);
+        return bounded ? term : term.or(Where.is(key, new NullValue(null)));
+    }
+
     /**
      * Constructs a SabresObject whose id is already known by fetching data from the database in
      * a background thread.
@@ -211,7 +446,7 @@ public class SabresQuery<T extends SabresObject> {
      * @return A Task that is resolved when the fetch completes.
      */
     public Task<T> getInBackground(final long objectId) {
-        return Task.callInBackground(new Callable<T>() {
+        return Sabres.callInReader(new Callable<T>() {
             @Override
             public T call() throws Exception {
                 return get(objectId);
@@ -269,6 +504,8 @@ public class SabresQuery<T extends SabresObject> {
     /**
      * Controls the number of results to skip before returning any results.
      * This is useful for pagination. Default is to skip zero results.
+     * The database still steps over every skipped row, so deep pages get slower;
+     * {@link #after} pages at a constant cost.
      *
      * @param skip The new skip.
      * @return this, so you can chain this call.
@@ -285,6 +522,12 @@ public class SabresQuery<T extends SabresObject> {
      * @return this, so you can chain this call.
      */
     public SabresQuery<T> include(String key) {
+        if (!Schema.isLoaded(name)) {
+            // validated by find once the schema is loaded.
+            includes.add(key);
+            return this;
+        }
+
         SabresDescriptor descriptor = Schema.getDescriptor(name, key);
         if (descriptor == null) {
             throw new IllegalArgumentException(String.format("Unrecognized key %s in Object %s",
@@ -318,7 +561,7 @@ public class SabresQuery<T extends SabresObject> {
             innerSelect.where(Where.equalTo(SabresList.getValueKey(), sabresValue));
             innerSelect.withoutSemicolon();
         } else {
-            addWhere(key, Where.equalTo(key, sabresValue));
+            addEqualityWhere(key, Where.equalTo(key, sabresValue));
         }
         return this;
     }
@@ -343,7 +586,7 @@ public class SabresQuery<T extends SabresObject> {
      * @return this, so you can chain this call.
      */
     public SabresQuery<T> whereExists(String key) {
-        addWhere(key, Where.isNot(key, new StringValue("NULL")));
+        addWhere(key, Where.isNot(key, new NullValue(null)));
         return this;
     }
 
@@ -354,7 +597,7 @@ public class SabresQuery<T extends SabresObject> {
      * @return this, so you can chain this call.
      */
     public SabresQuery<T> whereDoesNotExist(String key) {
-        addWhere(key, Where.is(key, new StringValue("NULL")));
+        addEqualityWhere(key, Where.is(key, new NullValue(null)));
         return this;
     }
 
@@ -411,14 +654,38 @@ public class SabresQuery<T extends SabresObject> {
     }
 
     /**
-     * Add a constraint for finding string values that start with a provided string.
+     * Add a constraint for finding string values that start with a provided string, ignoring
+     * the case of ASCII letters.
+     * <p>
+     * The prefix is matched as it is, % and _ are not wildcards. On a String key the constraint
+     * is a range on the key, so it can use an index on the key with the NOCASE collation, which
+     * Sabres creates for prefix queries that run often. On a key of any other type, such as a
+     * number, the text of the value is matched with LIKE, which cannot use an index.
      *
      * @param key    The key that the string to match is stored in.
      * @param prefix The substring that the value must start with.
      * @return this, so you can chain this call.
+     * @see #whereStartsWith(String, String, boolean)
      */
     public SabresQuery<T> whereStartsWith(String key, String prefix) {
-        addWhere(key, Where.startsWith(key, prefix));
+        return whereStartsWith(key, prefix, false);
+    }
+
+    /**
+     * Add a constraint for finding string values that start with a provided string.
+     * <p>
+     * Like {@link #whereStartsWith(String, String)}, except that the case of a String key can be
+     * compared. The text of a key of any other type is always matched ignoring case.
+     *
+     * @param key           The key that the string to match is stored in.
+     * @param prefix        The substring that the value must start with.
+     * @param caseSensitive false to ignore the case of ASCII letters.
+     * @return this, so you can chain this call.
+     */
+    public SabresQuery<T> whereStartsWith(String key, String prefix, boolean caseSensitive) {
+        addCondition(new Prefix(name, key, prefix, caseSensitive));
+        // the index needs the collation of the comparison.
+        keyIndices.add(caseSensitive ? key : Where.getNoCaseKey(key));
         return this;
     }
 
@@ -438,48 +705,148 @@ public class SabresQuery<T extends SabresObject> {
      * @param key       The key that the string to match is stored in.
      * @param substring The substring that the value must contain.
      * @return this, so you can chain this call.
+     * @see #whereMatches(String, String)
      */
     public SabresQuery<T> whereContains(String key, String substring) {
         addWhere(key, Where.contains(key, substring));
         return this;
     }
 
+    /**
+     * Add a constraint for finding string values that match a full text query. Unlike
+     * {@link #whereContains(String, String)}, which scans every object, this searches the full
+     * text index of the key, which needs to be enabled with
+     * {@link SabresObject#enableFullTextSearch(Class, String)}.
+     * <p>
+     * The query uses the sqlite full text syntax. Words are matched regardless of case, a
+     * trailing * matches words that start with a prefix, for example {@code sab*}, and words in
+     * double quotes match as a phrase.
+     *
+     * @param key   The key that the string to match is stored in.
+     * @param query The full text query.
+     * @return this, so you can chain this call.
+     * @see #orderByRelevance()
+     */
+    public SabresQuery<T> whereMatches(String key, String query) {
+        if (innerQueries != null) {
+            throw new IllegalStateException("Cannot call Where* functions on a compound query.");
+        }
+
+        if (!FullTextIndex.isEnabled(name, key)) {
+            throw new IllegalArgumentException(String.format(
+                "Full text search is not enabled for key %s in Object %s", key, name));
+        }
+
+        matches.add(new String[] {key, query});
+        return this;
+    }
+
+    /**
+     * Sorts the results by how many times they match the first
+     * {@link #whereMatches(String, String)} query, most matches first. Orders added with
+     * {@link #addAscendingOrder(String)} or {@link #addDescendingOrder(String)} break ties.
+     * Has no effect without a full text match, or together with {@link #after(SabresObject)}.
+     *
+     * @return this, so you can chain this call.
+     */
+    public SabresQuery<T> orderByRelevance() {
+        orderByRelevance = true;
+        return this;
+    }
+
     /**
      * Add a constraint to the query that requires a particular key's value to be contained in
      * the provided list of values.
+     * <p>
+     * The list may be of any size. A large list is not bound value by value, it is bound as a
+     * json array where sqlite has json_each. Otherwise its values are loaded into a temp table
+     * when the query runs, which holds the write lock of the database for the query, so such
+     * a query waits for writes and blocks them.
      *
      * @param key    The key to check.
      * @param values The values that will match.
      * @return this, so you can chain this call.
      */
     public SabresQuery<T> whereContainedIn(String key, List<?> values) {
-        List<String> stingValues = new ArrayList<>(values.size());
-        for (Object o : values) {
-            stingValues.add(SabresValue.create(o).toSql());
+        if (ValueSetValue.shouldUse(values)) {
+            addValueSet(key, values, true);
+        } else {
+            addEqualityWhere(key, Where.in(key, values));
         }
 
-        addWhere(key, Where.in(key, stingValues));
         return this;
     }
 
+    /**
+     * Add a constraint that requires that a key's value matches a SabresQuery constraint.
+     * <p>
+     * The inner query runs as a subselect of this query, so the objects are filtered by
+     * sqlite, using the indices of both queries.
+     *
+     * @param key   The key that the Pointer to match is stored in.
+     * @param query The query that the value should match.
+     * @return this, so you can chain this call.
+     */
+    public SabresQuery<T> whereMatchesQuery(String key, SabresQuery<?> query) {
+        addSubquery(key, query, true);
+        return this;
+    }
+
+    /**
+     * Add a constraint that requires that a key's value does not match a SabresQuery
+     * constraint. Objects that do not have a value for the key satisfy the constraint.
+     *
+     * @param key   The key that the Pointer to match is stored in.
+     * @param query The query that the value should not match.
+     * @return this, so you can chain this call.
+     */
+    public SabresQuery<T> whereDoesNotMatchQuery(String key, SabresQuery<?> query) {
+        addSubquery(key, query, false);
+        return this;
+    }
+
+    private void addSubquery(String key, SabresQuery<?> query, boolean matches) {
+        if (innerQueries != null) {
+            throw new IllegalStateException("Cannot call Where* functions on a compound query.");
+        }
+
+        subqueries.add(new Subquery(key, query, matches));
+        if (matches) {
+            equalityKeys.add(key);
+        } else {
+            keyIndices.add(key);
+        }
+    }
+
     /**
      * Add a constraint to the query that requires a particular key's value not be contained in
      * the provided list of values.
+     * <p>
+     * The list may be of any size, like in {@link #whereContainedIn(String, List)}.
      *
      * @param key    The key to check.
      * @param values The values that will not match.
      * @return this, so you can chain this call.
      */
     public SabresQuery<T> whereNotContainedIn(String key, List<?> values) {
-        List<String> stingValues = new ArrayList<>(values.size());
-        for (Object o : values) {
-            stingValues.add(SabresValue.create(o).toSql());
+        if (ValueSetValue.shouldUse(values)) {
+            addValueSet(key, values, false);
+        } else {
+            addWhere(key, Where.notIn(key, values));
         }
 
-        addWhere(key, Where.notIn(key, stingValues));
         return this;
     }
 
+    private void addValueSet(String key, List<?> values, boolean contained) {
+        addCondition(new ValueSet(key, new ArrayList<>(values), contained));
+        if (contained) {
+            equalityKeys.add(key);
+        } else {
+            keyIndices.add(key);
+        }
+    }
+
     /**
      * Add a constraint to the query that requires a particular key's value to contain every one
      * of the provided list of values.
@@ -509,6 +876,17 @@ public class SabresQuery<T extends SabresObject> {
     }
 
     private void addWhere(String key, Where where) {
+        addCondition(where);
+        keyIndices.add(key);
+    }
+
+    // sqlite uses an index for equality and IN on its leading columns in any order.
+    private void addEqualityWhere(String key, Where where) {
+        addCondition(where);
+        equalityKeys.add(key);
+    }
+
+    private void addCondition(Where where) {
         if (innerQueries != null) {
             throw new IllegalStateException("Cannot call Where* functions on a compound query.");
         }
@@ -518,8 +896,14 @@ public class SabresQuery<T extends SabresObject> {
         } else {
             this.where = this.where.and(where);
         }
+    }
+
+    private void addCondition(Condition condition) {
+        if (innerQueries != null) {
+            throw new IllegalStateException("Cannot call Where* functions on a compound query.");
+        }
 
-        keyIndices.add(key);
+        conditions.add(condition);
     }
 
     /**
@@ -550,7 +934,7 @@ public class SabresQuery<T extends SabresObject> {
      * @return A Task that will be resolved when the get has completed.
      */
     public Task<T> getFirstInBackground() {
-        return Task.callInBackground(new Callable<T>() {
+        return Sabres.callInReader(new Callable<T>() {
             @Override
             public T call() throws Exception {
                 return getFirst();
@@ -581,7 +965,7 @@ public class SabresQuery<T extends SabresObject> {
      * @return A Task that will be resolved when the find has completed.
      */
     public Task<List<T>> findInBackground() {
-        return Task.callInBackground(new Callable<List<T>>() {
+        return Sabres.callInReader(new Callable<List<T>>() {
             @Override
             public List<T> call() throws Exception {
                 return find();
@@ -615,13 +999,13 @@ public class SabresQuery<T extends SabresObject> {
         Sabres sabres = Sabres.self();
         sabres.open();
         try {
-            CountCommand command = new CountCommand(name);
-            if (where != null) {
-                command.where(where);
-            }
+            CountCommand command = new CountCommand(name).where(getWhere());
 
             if (SqliteMaster.tableExists(sabres, name)) {
-                return sabres.count(command.toSql());
+                final long start = System.nanoTime();
+                long count = sabres.count(command.toSql(), command.getArgs());
+                recordShape(sabres, false, System.nanoTime() - start);
+                return count;
             }
 
             return 0;
@@ -651,7 +1035,7 @@ public class SabresQuery<T extends SabresObject> {
      * @return A Task that will be resolved when the count has completed.
      */
     public Task<Long> countInBackground() {
-        return Task.callInBackground(new Callable<Long>() {
+        return Sabres.callInReader(new Callable<Long>() {
             @Override
             public Long call() throws Exception {
                 return count();
@@ -660,70 +1044,101 @@ public class SabresQuery<T extends SabresObject> {
     }
 
     /**
-     * Retrieves a list of SabresObjects that satisfy this query.
+     * Sums the values of the given key over the objects that match this query.
+     * Objects without a value for the key are skipped. The sum is computed by the database,
+     * without creating the objects.
      *
-     * @return A list of all SabresObjects obeying the conditions set in this query.
-     * @throws SabresException Throws a SabresException if there was an error with the query.
+     * @param key The key of a number value.
+     * @return A Long for keys of integral types, a Double for keys of floating point types.
+     * @throws SabresException Throws an exception when the key is not a number or the query is
+     *                         invalid.
      */
-    public List<T> find() throws SabresException {
-        List<T> objects = new ArrayList<>();
-
+    public Number sum(String key) throws SabresException {
         Sabres sabres = Sabres.self();
         sabres.open();
         Cursor c = null;
         try {
-            if (SqliteMaster.tableExists(sabres, name)) {
-                createIndices(sabres);
-                SelectCommand command = new SelectCommand(name, selectKeys.isEmpty() ?
-                Schema.getKeys(name) : selectKeys);
-                for (String include : includes) {
-                    SabresDescriptor descriptor = Schema.getDescriptor(name, include);
-                    if (descriptor != null &&
-                        descriptor.getType().equals(SabresDescriptor.Type.Pointer)) {
-                        command.join(descriptor.getName(), include,
-                            Schema.getKeys(descriptor.getName()));
-                    }
-                }
-
-                for (OrderBy orderBy : orderByList) {
-                    command.orderBy(orderBy);
-                }
+            if (!SqliteMaster.tableExists(sabres, name)) {
+                return 0L;
+            }
 
-                if (limit != null) {
-                    command.withLimit(limit);
-                }
+            SabresDescriptor descriptor = getDescriptor(sabres, key, NUMBER_TYPES);
+            boolean integral = descriptor.toSqlType().equals(SqlType.Integer);
+            // total is never null and always a floating point number, sum keeps integers exact.
+            c = aggregate(sabres, new SqlFunction(key, integral ? SqlFunction.Function.Sum :
+                SqlFunction.Function.Total), null);
+            c.moveToFirst();
+            if (integral) {
+                return c.isNull(0) ? 0L : CursorHelper.getLong(c, AggregateCommand.getValueKey());
+            }
 
-                if (skip != null) {
-                    command.withSkip(skip);
-                }
+            return CursorHelper.getDouble(c, AggregateCommand.getValueKey());
+        } finally {
+            if (c != null) {
+                c.close();
+            }
 
-                if (innerQueries != null) {
-                    for (SabresQuery q : innerQueries) {
-                        if (where == null) {
-                            where = q.where;
-                        } else {
-                            where.or(q.where);
-                        }
-                    }
-                }
+            sabres.close();
+        }
+    }
 
-                if (innerSelect != null) {
-                    command.inInnerSelect(innerSelect, SabresObject.getObjectIdKey());
-                }
+    /**
+     * Sums the values of the given key over the objects that match this query in a background
+     * thread.
+     *
+     * @param key The key of a number value.
+     * @return A Task that resolves to the sum.
+     * @see #sum(String)
+     */
+    public Task<Number> sumInBackground(final String key) {
+        return Sabres.callInReader(new Callable<Number>() {
+            @Override
+            public Number call() throws Exception {
+                return sum(key);
+            }
+        });
+    }
 
-                c = sabres.select(command.where(where).toSql());
-                for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-                    T object = createObjectInstance();
-                    object.populate(sabres, c);
-                    for (String include : includes) {
-                        object.populateChild(sabres, c, include);
-                    }
+    /**
+     * Sums the values of the given key over the objects that match this query in a background
+     * thread.
+     *
+     * @param key      The key of a number value.
+     * @param callback callback.done(sum, e) will be called when the sum completes.
+     * @see #sum(String)
+     */
+    public void sumInBackground(String key, final AggregateCallback<Number> callback) {
+        sumInBackground(key).continueWith(new Continuation<Number, Void>() {
+            @Override
+            public Void then(Task<Number> task) throws Exception {
+                callback.done(task.getResult(), SabresException.construct(task.getError()));
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
 
-                    objects.add(object);
-                }
+    /**
+     * Averages the values of the given key over the objects that match this query.
+     * Objects without a value for the key are skipped.
+     *
+     * @param key The key of a number value.
+     * @return The average, or null if no object has a value for the key.
+     * @throws SabresException Throws an exception when the key is not a number or the query is
+     *                         invalid.
+     */
+    public Double average(String key) throws SabresException {
+        Sabres sabres = Sabres.self();
+        sabres.open();
+        Cursor c = null;
+        try {
+            if (!SqliteMaster.tableExists(sabres, name)) {
+                return null;
             }
 
-            return objects;
+            getDescriptor(sabres, key, NUMBER_TYPES);
+            c = aggregate(sabres, new SqlFunction(key, SqlFunction.Function.Avg), null);
+            c.moveToFirst();
+            return c.isNull(0) ? null : CursorHelper.getDouble(c, AggregateCommand.getValueKey());
         } finally {
             if (c != null) {
                 c.close();
@@ -733,26 +1148,1021 @@ public class SabresQuery<T extends SabresObject> {
         }
     }
 
-    private T createObjectInstance() {
-        try {
-            return clazz.newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException(String.format("Failed to instantiate class %s",
-                clazz.getSimpleName()), e);
-        }
+    /**
+     * Averages the values of the given key over the objects that match this query in a
+     * background thread.
+     *
+     * @param key The key of a number value.
+     * @return A Task that resolves to the average.
+     * @see #average(String)
+     */
+    public Task<Double> averageInBackground(final String key) {
+        return Sabres.callInReader(new Callable<Double>() {
+            @Override
+            public Double call() throws Exception {
+                return average(key);
+            }
+        });
     }
 
     /**
-     * Constructs a SabresObject whose id is already known by fetching data from the database.
+     * Averages the values of the given key over the objects that match this query in a
+     * background thread.
      *
-     * @param objectId The id of the object to get.
-     * @return Object id of the ParseObject to fetch.
-     * @throws SabresException Throws an exception when there is no such object or if there's a
-     *                         database error.
-     * @see SabresException#OBJECT_NOT_FOUND
+     * @param key      The key of a number value.
+     * @param callback callback.done(average, e) will be called when the average completes.
+     * @see #average(String)
      */
-    public T get(long objectId) throws SabresException {
-        whereEqualTo(SabresObject.getObjectIdKey(), objectId);
-        return getFirst();
+    public void averageInBackground(String key, final AggregateCallback<Double> callback) {
+        averageInBackground(key).continueWith(new Continuation<Double, Void>() {
+            @Override
+            public Void then(Task<Double> task) throws Exception {
+                callback.done(task.getResult(), SabresException.construct(task.getError()));
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Finds the smallest value of the given key over the objects that match this query.
+     *
+     * @param key The key to find the smallest value of.
+     * @return The smallest value, of the type of the key, or null if no object has a value for
+     * the key.
+     * @throws SabresException Throws an exception when the key is a list or the query is
+     *                         invalid.
+     */
+    public <V> V min(String key) throws SabresException {
+        return extreme(key, SqlFunction.Function.Min);
+    }
+
+    /**
+     * Finds the smallest value of the given key over the objects that match this query in a
+     * background thread.
+     *
+     * @param key The key to find the smallest value of.
+     * @return A Task that resolves to the smallest value.
+     * @see #min(String)
+     */
+    public <V> Task<V> minInBackground(final String key) {
+        return Sabres.callInReader(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return min(key);
+            }
+        });
+    }
+
+    /**
+     * Finds the smallest value of the given key over the objects that match this query in a
+     * background thread.
+     *
+     * @param key      The key to find the smallest value of.
+     * @param callback callback.done(min, e) will be called when the min completes.
+     * @see #min(String)
+     */
+    public <V> void minInBackground(String key, final AggregateCallback<V> callback) {
+        this.<V>minInBackground(key).continueWith(new Continuation<V, Void>() {
+            @Override
+            public Void then(Task<V> task) throws Exception {
+                callback.done(task.getResult(), SabresException.construct(task.getError()));
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Finds the largest value of the given key over the objects that match this query.
+     *
+     * @param key The key to find the largest value of.
+     * @return The largest value, of the type of the key, or null if no object has a value for
+     * the key.
+     * @throws SabresException Throws an exception when the key is a list or the query is
+     *                         invalid.
+     */
+    public <V> V max(String key) throws SabresException {
+        return extreme(key, SqlFunction.Function.Max);
+    }
+
+    /**
+     * Finds the largest value of the given key over the objects that match this query in a
+     * background thread.
+     *
+     * @param key The key to find the largest value of.
+     * @return A Task that resolves to the largest value.
+     * @see #max(String)
+     */
+    public <V> Task<V> maxInBackground(final String key) {
+        return Sabres.callInReader(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return max(key);
+            }
+        });
+    }
+
+    /**
+     * Finds the largest value of the given key over the objects that match this query in a
+     * background thread.
+     *
+     * @param key      The key to find the largest value of.
+     * @param callback callback.done(max, e) will be called when the max completes.
+     * @see #max(String)
+     */
+    public <V> void maxInBackground(String key, final AggregateCallback<V> callback) {
+        this.<V>maxInBackground(key).continueWith(new Continuation<V, Void>() {
+            @Override
+            public Void then(Task<V> task) throws Exception {
+                callback.done(task.getResult(), SabresException.construct(task.getError()));
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Counts the objects that match this query for each value of the given key.
+     *
+     * @param key The key to group the objects by.
+     * @return The number of objects by value of the key. Objects without a value for the key
+     * are counted under null.
+     * @throws SabresException Throws an exception when the key is a list or the query is
+     *                         invalid.
+     */
+    public <K> Map<K, Long> countBy(String key) throws SabresException {
+        Map<Object, Long> counts = new HashMap<>();
+        Sabres sabres = Sabres.self();
+        sabres.open();
+        Cursor c = null;
+        try {
+            if (SqliteMaster.tableExists(sabres, name)) {
+                SabresDescriptor descriptor = getDescriptor(sabres, key, SCALAR_TYPES);
+                c = aggregate(sabres, new SqlFunction("*", SqlFunction.Function.Count), key);
+                for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                    counts.put(getAggregateValue(c, AggregateCommand.getGroupKey(), descriptor),
+                        CursorHelper.getLong(c, AggregateCommand.getValueKey()));
+                }
+            }
+
+            //noinspection unchecked
+            return (Map<K, Long>)counts;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+
+            sabres.close();
+        }
+    }
+
+    /**
+     * Counts the objects that match this query for each value of the given key in a background
+     * thread.
+     *
+     * @param key The key to group the objects by.
+     * @return A Task that resolves to the number of objects by value of the key.
+     * @see #countBy(String)
+     */
+    public <K> Task<Map<K, Long>> countByInBackground(final String key) {
+        return Sabres.callInReader(new Callable<Map<K, Long>>() {
+            @Override
+            public Map<K, Long> call() throws Exception {
+                return countBy(key);
+            }
+        });
+    }
+
+    /**
+     * Counts the objects that match this query for each value of the given key in a background
+     * thread.
+     *
+     * @param key      The key to group the objects by.
+     * @param callback callback.done(counts, e) will be called when the count completes.
+     * @see #countBy(String)
+     */
+    public <K> void countByInBackground(String key,
+        final AggregateCallback<Map<K, Long>> callback) {
+        this.<K>countByInBackground(key).continueWith(new Continuation<Map<K, Long>, Void>() {
+            @Override
+            public Void then(Task<Map<K, Long>> task) throws Exception {
+                callback.done(task.getResult(), SabresException.construct(task.getError()));
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    private <V> V extreme(String key, SqlFunction.Function function) throws SabresException {
+        Sabres sabres = Sabres.self();
+        sabres.open();
+        Cursor c = null;
+        try {
+            if (!SqliteMaster.tableExists(sabres, name)) {
+                return null;
+            }
+
+            SabresDescriptor descriptor = getDescriptor(sabres, key, SCALAR_TYPES);
+            c = aggregate(sabres, new SqlFunction(key, function), null);
+            c.moveToFirst();
+            //noinspection unchecked
+            return (V)getAggregateValue(c, AggregateCommand.getValueKey(), descriptor);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+
+            sabres.close();
+        }
+    }
+
+    private Cursor aggregate(Sabres sabres, SqlFunction function, String groupBy)
+        throws SabresException {
+        AggregateCommand command = new AggregateCommand(name, function).where(getWhere());
+        if (innerSelect != null) {
+            command.inInnerSelect(innerSelect, SabresObject.getObjectIdKey());
+        }
+
+        if (groupBy != null) {
+            command.groupBy(groupBy);
+        }
+
+        final long start = System.nanoTime();
+        Cursor c = sabres.selectCached(command.toSql(), command.getArgs(),
+            command.getTables());
+        recordShape(sabres, false, System.nanoTime() - start);
+        return c;
+    }
+
+    private SabresDescriptor getDescriptor(Sabres sabres, String key,
+        Set<SabresDescriptor.Type> types) throws SabresException {
+        if (key.equals(SabresObject.getObjectIdKey())) {
+            return new SabresDescriptor(SabresDescriptor.Type.Long);
+        }
+
+        SabresDescriptor descriptor = Schema.getDescriptor(sabres, name, key);
+        if (descriptor == null) {
+            throw new SabresException(SabresException.OTHER_CAUSE,
+                String.format("Unrecognized key %s in Object %s", key, name));
+        }
+
+        if (!types.contains(descriptor.getType())) {
+            throw new SabresException(SabresException.OTHER_CAUSE,
+                String.format("Unsupported key %s of type %s in Object %s", key,
+                    descriptor.toString(), name));
+        }
+
+        return descriptor;
+    }
+
+    private static Object getAggregateValue(Cursor c, String column,
+        SabresDescriptor descriptor) {
+        if (c.isNull(c.getColumnIndex(column))) {
+            return null;
+        }
+
+        switch (descriptor.getType()) {
+            case Integer:
+                return CursorHelper.getInt(c, column);
+            case Double:
+                return CursorHelper.getDouble(c, column);
+            case Float:
+                return CursorHelper.getFloat(c, column);
+            case String:
+                return CursorHelper.getString(c, column);
+            case Byte:
+                return CursorHelper.getByte(c, column);
+            case Short:
+                return CursorHelper.getShort(c, column);
+            case Long:
+                return CursorHelper.getLong(c, column);
+            case Boolean:
+                return CursorHelper.getBoolean(c, column);
+            case Date:
+                return CursorHelper.getDate(c, column);
+            case Pointer:
+                return SabresObject.createWithoutData(descriptor.getName(),
+                    CursorHelper.getLong(c, column));
+        }
+
+        throw new IllegalStateException(String.format("Unexpected aggregate type %s",
+            descriptor.getType()));
+    }
+
+    /**
+     * Retrieves a list of SabresObjects that satisfy this query.
+     *
+     * @return A list of all SabresObjects obeying the conditions set in this query.
+     * @throws SabresException Throws a SabresException if there was an error with the query.
+     */
+    public List<T> find() throws SabresException {
+        List<T> objects = new ArrayList<>();
+
+        Sabres sabres = Sabres.self();
+        sabres.open();
+        Cursor c = null;
+        try {
+            if (SqliteMaster.tableExists(sabres, name)) {
+                final List<String> joined = new ArrayList<>(includes.size());
+                final long start = System.nanoTime();
+                c = select(sabres, createStatement(sabres, joined), true);
+                recordShape(sabres, true, System.nanoTime() - start);
+                for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                    T object = createObjectInstance();
+                    object.populateWithoutLists(sabres, c);
+                    for (String include : joined) {
+                        object.populateChild(sabres, c, include);
+                    }
+
+                    objects.add(object);
+                }
+
+                SabresObject.populateLists(sabres, name, objects);
+            }
+
+            return objects;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+
+            sabres.close();
+        }
+    }
+
+    /**
+     * Retrieves the object ids of the SabresObjects that satisfy this query.
+     * <p>
+     * Values are read straight from the database into the array, no SabresObject is created.
+     *
+     * @return The object ids, in the order of this query.
+     * @throws SabresException Throws a SabresException if there was an error with the query.
+     */
+    public long[] findIds() throws SabresException {
+        return findLongs(SabresObject.getObjectIdKey(), 0);
+    }
+
+    /**
+     * Retrieves the object ids of the SabresObjects that satisfy this query in a background
+     * thread.
+     *
+     * @return A Task that resolves to the object ids.
+     * @see #findIds()
+     */
+    public Task<long[]> findIdsInBackground() {
+        return findLongsInBackground(SabresObject.getObjectIdKey(), 0);
+    }
+
+    /**
+     * Retrieves the values of an integral key of the SabresObjects that satisfy this query.
+     * Dates are returned as milliseconds since the epoch, pointers as object ids and booleans
+     * as 0 or 1.
+     * <p>
+     * Values are read straight from the database into the array, no SabresObject is created.
+     * The array has a value for each object, in the order of this query, so it lines up with
+     * {@link #findIds()}.
+     *
+     * @param key       The key to retrieve.
+     * @param nullValue The value of objects without a value for the key.
+     * @return The values, in the order of this query.
+     * @throws SabresException Throws an exception when the key is not integral or the query is
+     *                         invalid.
+     */
+    public long[] findLongs(String key, long nullValue) throws SabresException {
+        Sabres sabres = Sabres.self();
+        sabres.open();
+        Cursor c = null;
+        try {
+            if (!SqliteMaster.tableExists(sabres, name)) {
+                return new long[0];
+            }
+
+            getDescriptor(sabres, key, INTEGRAL_TYPES);
+            c = project(sabres, key);
+            long[] values = new long[c.getCount()];
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                values[c.getPosition()] = c.isNull(0) ? nullValue : c.getLong(0);
+            }
+
+            return values;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+
+            sabres.close();
+        }
+    }
+
+    /**
+     * Retrieves the values of an integral key of the SabresObjects that satisfy this query in a
+     * background thread.
+     *
+     * @param key       The key to retrieve.
+     * @param nullValue The value of objects without a value for the key.
+     * @return A Task that resolves to the values.
+     * @see #findLongs(String, long)
+     */
+    public Task<long[]> findLongsInBackground(final String key, final long nullValue) {
+        return Sabres.callInReader(new Callable<long[]>() {
+            @Override
+            public long[] call() throws Exception {
+                return findLongs(key, nullValue);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the values of a number key of the SabresObjects that satisfy this query.
+     * <p>
+     * Values are read straight from the database into the array, no SabresObject is created.
+     * The array has a value for each object, in the order of this query, so it lines up with
+     * {@link #findIds()}.
+     *
+     * @param key       The key to retrieve.
+     * @param nullValue The value of objects without a value for the key.
+     * @return The values, in the order of this query.
+     * @throws SabresException Throws an exception when the key is not a number or the query is
+     *                         invalid.
+     */
+    public double[] findDoubles(String key, double nullValue) throws SabresException {
+        Sabres sabres = Sabres.self();
+        sabres.open();
+        Cursor c = null;
+        try {
+            if (!SqliteMaster.tableExists(sabres, name)) {
+                return new double[0];
+            }
+
+            getDescriptor(sabres, key, NUMBER_TYPES);
+            c = project(sabres, key);
+            double[] values = new double[c.getCount()];
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                values[c.getPosition()] = c.isNull(0) ? nullValue : c.getDouble(0);
+            }
+
+            return values;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+
+            sabres.close();
+        }
+    }
+
+    /**
+     * Retrieves the values of a number key of the SabresObjects that satisfy this query in a
+     * background thread.
+     *
+     * @param key       The key to retrieve.
+     * @param nullValue The value of objects without a value for the key.
+     * @return A Task that resolves to the values.
+     * @see #findDoubles(String, double)
+     */
+    public Task<double[]> findDoublesInBackground(final String key, final double nullValue) {
+        return Sabres.callInReader(new Callable<double[]>() {
+            @Override
+            public double[] call() throws Exception {
+                return findDoubles(key, nullValue);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the values of a string key of the SabresObjects that satisfy this query.
+     * <p>
+     * Values are read straight from the database into the array, no SabresObject is created.
+     * The array has a value for each object, in the order of this query, so it lines up with
+     * {@link #findIds()}. Objects without a value for the key have null.
+     *
+     * @param key The key to retrieve.
+     * @return The values, in the order of this query.
+     * @throws SabresException Throws an exception when the key is not a string or the query is
+     *                         invalid.
+     */
+    public String[] findStrings(String key) throws SabresException {
+        Sabres sabres = Sabres.self();
+        sabres.open();
+        Cursor c = null;
+        try {
+            if (!SqliteMaster.tableExists(sabres, name)) {
+                return new String[0];
+            }
+
+            getDescriptor(sabres, key, EnumSet.of(SabresDescriptor.Type.String));
+            c = project(sabres, key);
+            String[] values = new String[c.getCount()];
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                values[c.getPosition()] = c.getString(0);
+            }
+
+            return values;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+
+            sabres.close();
+        }
+    }
+
+    /**
+     * Retrieves the values of a string key of the SabresObjects that satisfy this query in a
+     * background thread.
+     *
+     * @param key The key to retrieve.
+     * @return A Task that resolves to the values.
+     * @see #findStrings(String)
+     */
+    public Task<String[]> findStringsInBackground(final String key) {
+        return Sabres.callInReader(new Callable<String[]>() {
+            @Override
+            public String[] call() throws Exception {
+                return findStrings(key);
+            }
+        });
+    }
+
+    // not cached, a cached result holds a boxed copy of every row the array is read from.
+    private Cursor project(Sabres sabres, final String key) throws SabresException {
+        final long start = System.nanoTime();
+        Cursor c = select(sabres, new Statement() {
+            @Override
+            public SelectCommand create(Where seek) throws SabresException {
+                return withConditions(new SelectCommand(name, Collections.singletonList(key)),
+                    seek);
+            }
+        }, false);
+        recordShape(sabres, true, System.nanoTime() - start);
+        return c;
+    }
+
+    /**
+     * Observes the results of this query. The callback is called on the UI thread with the
+     * initial results, all reported as inserted, and again whenever a committed write changed
+     * them, with the object ids that were inserted, removed or changed since the previous call.
+     * <p>
+     * Only writes to the tables of this query, including the tables of included pointers and
+     * lists, cause the query to run again, and a burst of writes causes a single run. The
+     * query must not be changed while it is observed.
+     *
+     * @param callback callback.done(changes, e) is called with each change of the results.
+     * @return The live query, which must be cancelled when the results are no longer needed.
+     */
+    public LiveQuery<T> observe(ObserveCallback callback) {
+        LiveQuery<T> liveQuery = new LiveQuery<>(Sabres.self(), this, callback);
+        liveQuery.start();
+        return liveQuery;
+    }
+
+    /**
+     * Hashes the values of each object that satisfies this query, without creating objects.
+     *
+     * @param tables the tables the query reads are added to it.
+     * @return the hash of each object by id, in the order of this query.
+     */
+    Map<Long, Integer> fingerprint(Sabres sabres, final Set<String> tables) throws SabresException {
+        Map<Long, Integer> fingerprints = new LinkedHashMap<>();
+        tables.add(name);
+        if (!SqliteMaster.tableExists(sabres, name)) {
+            return fingerprints;
+        }
+
+        Cursor c = null;
+        try {
+            final Statement statement = createStatement(sabres, new ArrayList<String>());
+            c = select(sabres, new Statement() {
+                @Override
+                public SelectCommand create(Where seek) throws SabresException {
+                    SelectCommand command = statement.create(seek);
+                    tables.addAll(command.getTables());
+                    return command;
+                }
+            }, false);
+            final int idColumn = c.getColumnIndex(SabresObject.getObjectIdKey());
+            final int columns = c.getColumnCount();
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                int hash = 0;
+                for (int i = 0; i < columns; i++) {
+                    String value = c.getString(i);
+                    hash = 31 * hash + (value == null ? 0 : value.hashCode());
+                }
+
+                fingerprints.put(c.getLong(idColumn), hash);
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        // a row only has a placeholder for each list, the values are in the list tables.
+        List<Long> ids = new ArrayList<>(fingerprints.keySet());
+        for (Map.Entry<String, SabresDescriptor> entry : Schema.load(sabres, name).entrySet()) {
+            if (!entry.getValue().getType().equals(SabresDescriptor.Type.List) ||
+                (!selectKeys.isEmpty() && !selectKeys.contains(entry.getKey()))) {
+                continue;
+            }
+
+            tables.add(SabresList.getTableName(name, entry.getKey()));
+            Map<Long, List<Object>> lists = SabresList.select(sabres, name, entry.getKey(),
+                entry.getValue(), ids);
+            for (Map.Entry<Long, List<Object>> list : lists.entrySet()) {
+                int hash = fingerprints.get(list.getKey());
+                for (Object value : list.getValue()) {
+                    hash = 31 * hash + (value instanceof SabresObject ?
+                        Long.valueOf(((SabresObject)value).getObjectId()).hashCode() :
+                        value.hashCode());
+                }
+
+                fingerprints.put(list.getKey(), hash);
+            }
+        }
+
+        return fingerprints;
+    }
+
+    /**
+     * Retrieves the SabresObjects that satisfy this query as a lazy list.
+     * <p>
+     * Unlike {@link #find()}, objects are only created when they are accessed, a page at a time,
+     * and only the most recently used pages are kept. This keeps memory use flat when binding
+     * large results to a list screen. The list keeps the query open until
+     * {@link SabresResultList#close()} is called. When the objects have list keys, each page
+     * reads their lists from the database, and the list can only be accessed on a background
+     * thread.
+     *
+     * @return A lazy list of all SabresObjects obeying the conditions set in this query.
+     * @throws SabresException Throws a SabresException if there was an error with the query.
+     */
+    public SabresResultList<T> findLazy() throws SabresException {
+        return findLazy(SabresResultList.DEFAULT_PAGE_SIZE, SabresResultList.DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * Retrieves the SabresObjects that satisfy this query as a lazy list.
+     *
+     * @param pageSize The number of objects that are created together on access.
+     * @param maxPages The number of pages that are kept. At most pageSize * maxPages objects
+     *                 are referenced by the list at any time.
+     * @return A lazy list of all SabresObjects obeying the conditions set in this query.
+     * @throws SabresException Throws a SabresException if there was an error with the query.
+     * @see #findLazy()
+     */
+    public SabresResultList<T> findLazy(int pageSize, int maxPages) throws SabresException {
+        if (pageSize < 1 || maxPages < 1) {
+            throw new IllegalArgumentException("Page size and max pages must be at least 1");
+        }
+
+        Sabres sabres = Sabres.self();
+        sabres.open();
+        Cursor c = null;
+        boolean success = false;
+        try {
+            List<String> joined = new ArrayList<>(includes.size());
+            if (SqliteMaster.tableExists(sabres, name)) {
+                final long start = System.nanoTime();
+                c = select(sabres, createStatement(sabres, joined), false);
+                recordShape(sabres, true, System.nanoTime() - start);
+            }
+
+            // the list owns the cursor and the database reference from here on.
+            SabresResultList<T> objects = new SabresResultList<>(sabres, c, clazz, joined,
+                c != null && hasLists(sabres), pageSize, maxPages);
+            sabres.addResultList(objects);
+            success = true;
+            return objects;
+        } finally {
+            if (!success) {
+                if (c != null) {
+                    c.close();
+                }
+
+                sabres.close();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the SabresObjects that satisfy this query as a lazy list, in a background thread.
+     *
+     * @return A Task that resolves to the lazy list.
+     * @see #findLazy()
+     */
+    public Task<SabresResultList<T>> findLazyInBackground() {
+        return Sabres.callInReader(new Callable<SabresResultList<T>>() {
+            @Override
+            public SabresResultList<T> call() throws Exception {
+                return findLazy();
+            }
+        });
+    }
+
+    // the select of the objects, the keys of the pointers it joins are put in joined.
+    private Statement createStatement(final Sabres sabres, final List<String> joined) {
+        return new Statement() {
+            @Override
+            public SelectCommand create(Where seek) throws SabresException {
+                joined.clear();
+                return createSelectCommand(sabres, joined, seek);
+            }
+        };
+    }
+
+    // whether the objects have list keys, whose values are not read by the select.
+    private boolean hasLists(Sabres sabres) throws SabresException {
+        for (Map.Entry<String, SabresDescriptor> entry : Schema.load(sabres, name).entrySet()) {
+            if (entry.getValue().getType().equals(SabresDescriptor.Type.List) &&
+                (selectKeys.isEmpty() || selectKeys.contains(entry.getKey()))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private SelectCommand createSelectCommand(Sabres sabres, List<String> joined, Where seek)
+        throws SabresException {
+        SelectCommand command = new SelectCommand(name, selectKeys.isEmpty() ?
+            Schema.getKeys(sabres, name) : selectKeys);
+        for (String include : includes) {
+            SabresDescriptor descriptor = Schema.getDescriptor(sabres, name, include);
+            if (descriptor == null) {
+                throw new SabresException(SabresException.OTHER_CAUSE,
+                    String.format("Unrecognized key %s in Object %s", include, name));
+            }
+
+            if (descriptor.getType().equals(SabresDescriptor.Type.Pointer)) {
+                command.join(descriptor.getName(), include,
+                    Schema.getKeys(sabres, descriptor.getName()));
+                joined.add(include);
+            }
+        }
+
+        return withConditions(command, seek);
+    }
+
+    // adds the conditions, order, limit and skip of this query.
+    private SelectCommand withConditions(SelectCommand command) throws SabresException {
+        return withConditions(command, createAfterRowsWhere());
+    }
+
+    /**
+     * @param seek the rows after the object this query pages after, or null for every row.
+     */
+    private SelectCommand withConditions(SelectCommand command, Where seek)
+        throws SabresException {
+        // relevance needs offsets(), which only works in a query that joins the index.
+        final boolean relevance = orderByRelevance && after == null && innerQueries == null &&
+            !matches.isEmpty();
+        Where where = getWhere(relevance);
+        if (relevance) {
+            final String table = FullTextIndex.getTableName(name, matches.get(0)[0]);
+            Where match = Where.matches(table, matches.get(0)[1]);
+            where = where == null ? match : match.and(where);
+            command.joinFullText(table);
+            command.orderBy(new OrderBy(FullTextIndex.getRelevance(table),
+                OrderBy.Direction.Descending));
+        }
+
+        for (OrderBy orderBy : orderByList) {
+            command.orderBy(orderBy);
+        }
+
+        if (after != null || relevance || !orderByList.isEmpty()) {
+            // breaks ties, so pages of an ordered query are stable.
+            command.orderBy(new OrderBy(getQualifiedKey(SabresObject.getObjectIdKey()),
+                getTieBreakDirection()));
+        }
+
+        if (limit != null) {
+            command.withLimit(limit);
+        }
+
+        if (skip != null) {
+            command.withSkip(skip);
+        }
+
+        if (innerSelect != null) {
+            command.inInnerSelect(innerSelect, SabresObject.getObjectIdKey());
+        }
+
+        if (seek != null) {
+            command.where(where == null ? seek : seek.and(where));
+        } else {
+            command.where(where);
+        }
+        return command;
+    }
+
+    /**
+     * Runs the query. When paging after an object splits its rows at the nulls of the first
+     * order key, the rows on the other side are sought once the first seek does not fill the
+     * limit, and follow its rows in the cursor.
+     */
+    private Cursor select(Sabres sabres, Statement statement, boolean cached)
+        throws SabresException {
+        final Where tail = skip == null ? createTailWhere() : null;
+        if (tail == null) {
+            return select(sabres, statement.create(createAfterRowsWhere()), cached);
+        }
+
+        Cursor head = select(sabres, statement.create(createSeekWhere()), cached);
+        final int rows = head.getCount();
+        if (limit != null && rows >= limit) {
+            return head;
+        }
+
+        boolean success = false;
+        try {
+            SelectCommand command = statement.create(tail);
+            if (limit != null) {
+                command.withLimit(limit - rows);
+            }
+
+            Cursor c = new MergeCursor(new Cursor[]{head, select(sabres, command, cached)});
+            success = true;
+            return c;
+        } finally {
+            if (!success) {
+                head.close();
+            }
+        }
+    }
+
+    private static Cursor select(Sabres sabres, SelectCommand command, boolean cached) {
+        if (cached) {
+            return sabres.selectCached(command.toSql(), command.getArgs(), command.getTables());
+        }
+
+        return sabres.select(command.toSql(), command.getArgs());
+    }
+
+    // the condition of this query, or the or of the conditions of the inner queries.
+    private Where getWhere() throws SabresException {
+        return getWhere(false);
+    }
+
+    /**
+     * @param joinMatch true to leave out the first full text match, for a query that joins its
+     *                  index instead.
+     */
+    private Where getWhere(boolean joinMatch) throws SabresException {
+        if (innerQueries == null) {
+            if (matches.size() <= (joinMatch ? 1 : 0) && subqueries.isEmpty() &&
+                conditions.isEmpty()) {
+                return where;
+            }
+
+            Where result = where == null ? null : where.copy();
+            for (String[] match : matches.subList(joinMatch ? 1 : 0, matches.size())) {
+                Where condition = FullTextIndex.matches(name, match[0], match[1]);
+                result = result == null ? condition : result.and(condition);
+            }
+
+            for (Subquery subquery : subqueries) {
+                Where condition = subquery.getWhere();
+                result = result == null ? condition : result.and(condition);
+            }
+
+            for (Condition deferred : conditions) {
+                Where condition = deferred.getWhere();
+                result = result == null ? condition : result.and(condition);
+            }
+
+            return result;
+        }
+
+        List<Where> inner = new ArrayList<>(innerQueries.size());
+        for (SabresQuery q : innerQueries) {
+            Where where = q.getWhere();
+            if (where == null) {
+                // matches every object, and so does the or.
+                return null;
+            }
+
+            inner.add(where);
+        }
+
+        if (inner.size() == 1) {
+            return inner.get(0);
+        }
+
+        // a union of the object ids of each inner query, so each can use its own index.
+        return Where.inUnion(getQualifiedKey(SabresObject.getObjectIdKey()), name,
+            SabresObject.getObjectIdKey(), inner);
+    }
+
+    private T createObjectInstance() {
+        try {
+            return clazz.newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Failed to instantiate class %s",
+                clazz.getSimpleName()), e);
+        }
+    }
+
+    /**
+     * Constructs a SabresObject whose id is already known by fetching data from the database.
+     *
+     * @param objectId The id of the object to get.
+     * @return Object id of the ParseObject to fetch.
+     * @throws SabresException Throws an exception when there is no such object or if there's a
+     *                         database error.
+     * @see SabresException#OBJECT_NOT_FOUND
+     */
+    public T get(long objectId) throws SabresException {
+        whereEqualTo(SabresObject.getObjectIdKey(), objectId);
+        return getFirst();
+    }
+
+    // builds a select of this query, once for each seek of its rows.
+    private interface Statement {
+        SelectCommand create(Where seek) throws SabresException;
+    }
+
+    private interface Condition {
+        Where getWhere() throws SabresException;
+    }
+
+    private static final class ValueSet implements Condition {
+        private final String key;
+        private final List<?> values;
+        private final boolean contained;
+
+        ValueSet(String key, List<?> values, boolean contained) {
+            this.key = key;
+            this.values = values;
+            this.contained = contained;
+        }
+
+        /**
+         * Rendered when this query runs, after startup checked whether sqlite has json_each,
+         * which decides the sql of the set.
+         */
+        @Override
+        public Where getWhere() {
+            ValueSetValue set = new ValueSetValue(values);
+            return contained ? Where.in(key, set) : Where.notIn(key, set);
+        }
+    }
+
+    private static final class Prefix implements Condition {
+        private final String name;
+        private final String key;
+        private final String prefix;
+        private final boolean caseSensitive;
+
+        Prefix(String name, String key, String prefix, boolean caseSensitive) {
+            this.name = name;
+            this.key = key;
+            this.prefix = prefix;
+            this.caseSensitive = caseSensitive;
+        }
+
+        /**
+         * Rendered when this query runs, once the type of the key is known. Numbers are less
+         * than any text, so a text range only finds values that are stored as text.
+         */
+        @Override
+        public Where getWhere() throws SabresException {
+            SabresDescriptor descriptor = Schema.getDescriptor(Sabres.self(), name, key);
+            if (descriptor == null ||
+                descriptor.getType().equals(SabresDescriptor.Type.String)) {
+                return Where.startsWith(key, prefix, caseSensitive);
+            }
+
+            return Where.startsWithLike(key, prefix);
+        }
+    }
+
+    private static final class Subquery {
+        private final String key;
+        private final SabresQuery<?> query;
+        private final boolean matches;
+
+        Subquery(String key, SabresQuery<?> query, boolean matches) {
+            this.key = key;
+            this.query = query;
+            this.matches = matches;
+        }
+
+        /**
+         * Rendered when this query runs, the inner query is built until then, and the table of
+         * its objects may not exist before that.
+         */
+        Where getWhere() throws SabresException {
+            if (!SqliteMaster.tableExists(Sabres.self(), query.name)) {
+                // no object matches the inner query, until objects of its table are saved.
+                return Where.constant(!matches).withTable(query.name);
+            }
+
+            SelectCommand select = query.withConditions(new SelectCommand(query.name,
+                Collections.singletonList(SabresObject.getObjectIdKey()))).withoutSemicolon();
+            if (matches) {
+                return Where.in(key, select);
+            }
+
+            // NOT IN is never true for a null key.
+            return Where.is(key, new NullValue(null)).or(Where.notIn(key, select));
+        }
     }
 }
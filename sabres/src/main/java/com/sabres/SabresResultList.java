@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read only list of query results that creates SabresObjects lazily, a page at a time.
+ * <p>
+ * The list keeps the query cursor and a reference on the database open, and holds on to the
+ * most recently used pages only. Objects of pages that were dropped are created again when they
+ * are accessed, so the same index may return a different instance over time. Pages are created
+ * on the thread that accesses them. When the objects have list keys, creating a page reads their
+ * lists from the database, so such a list can only be accessed on a background thread and throws
+ * an IllegalStateException on the main thread. To bind results on the main thread, leave the
+ * list keys out with {@link SabresQuery#selectKeys(List)}.
+ * <p>
+ * The list must be closed when it is no longer needed. Deleting the database closes the lists
+ * that are still open.
+ * <pre>
+ * {@code
+ * SabresResultList<MyClass> objects = query.findLazy();
+ * try {
+ *     for (MyClass object : objects) {
+ *         process(object);
+ *     }
+ * } finally {
+ *     objects.close();
+ * }
+ * }
+ * </pre>
+ *
+ * @param <T> The SabresObject subclass of the results.
+ */
+public final class SabresResultList<T extends SabresObject> extends AbstractList<T>
+    implements Closeable {
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int DEFAULT_MAX_PAGES = 4;
+    private final Sabres sabres;
+    private final Class<T> clazz;
+    private final List<String> includes;
+    private final int pageSize;
+    private final int size;
+    // the objects have list keys, which are read from the database with each page.
+    private final boolean lists;
+    private final LinkedHashMap<Integer, List<T>> pages;
+    private Cursor cursor;
+    private boolean closed = false;
+
+    SabresResultList(Sabres sabres, Cursor cursor, Class<T> clazz, List<String> includes,
+        boolean lists, int pageSize, final int maxPages) {
+        this.sabres = sabres;
+        this.cursor = cursor;
+        this.clazz = clazz;
+        this.includes = includes;
+        this.lists = lists;
+        this.pageSize = pageSize;
+        size = cursor == null ? 0 : cursor.getCount();
+        pages = new LinkedHashMap<Integer, List<T>>(maxPages + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Returns the object at the given index, creating its page if it is not held already.
+     * Creating a page reads its rows from the query cursor, and the lists of its objects from
+     * the database, on the calling thread.
+     *
+     * @throws IllegalStateException if the list was closed, or if the objects have list keys and
+     *                               this is called on the main thread.
+     */
+    @Override
+    public synchronized T get(int index) {
+        if (closed) {
+            throw new IllegalStateException("SabresResultList is closed");
+        }
+
+        // checked on every call, not only when a page is created, so it fails the same way
+        // whichever pages happen to be held.
+        if (lists) {
+            Utils.checkNotMain();
+        }
+
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index %d, size %d", index, size));
+        }
+
+        final int page = index / pageSize;
+        List<T> objects = pages.get(page);
+        if (objects == null) {
+            objects = load(page);
+            pages.put(page, objects);
+        }
+
+        return objects.get(index % pageSize);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the list was closed.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the query cursor and releases the reference on the database. Objects already
+     * returned by the list stay valid. Calling close more than once has no effect. The list may
+     * be closed on any thread, including the main thread.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        pages.clear();
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+
+        sabres.removeResultList(this);
+        sabres.release();
+    }
+
+    private List<T> load(int page) {
+        final int start = page * pageSize;
+        final int end = Math.min(size, start + pageSize);
+        List<T> objects = new ArrayList<>(end - start);
+        try {
+            for (int i = start; i < end; i++) {
+                cursor.moveToPosition(i);
+                T object = createObjectInstance();
+                object.populateWithoutLists(sabres, cursor);
+                for (String include : includes) {
+                    object.populateChild(sabres, cursor, include);
+                }
+
+                objects.add(object);
+            }
+
+            SabresObject.populateLists(sabres, clazz.getSimpleName(), objects);
+        } catch (SabresException e) {
+            throw new RuntimeException(String.format("Failed to load objects %d to %d of %s",
+                start, end, clazz.getSimpleName()), e);
+        }
+
+        return objects;
+    }
+
+    private T createObjectInstance() {
+        try {
+            return clazz.newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Failed to instantiate class %s",
+                clazz.getSimpleName()), e);
+        }
+    }
+}
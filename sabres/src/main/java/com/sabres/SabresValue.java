@@ -16,6 +16,8 @@
 
 package com.sabres;
 
+import android.database.sqlite.SQLiteProgram;
+
 import java.util.Date;
 import java.util.List;
 
@@ -130,6 +132,14 @@ abstract class SabresValue<T> {
 
     abstract String toSql();
 
+    /**
+     * Binds this value to a '?' placeholder of a compiled statement.
+     *
+     * @param program The statement to bind to.
+     * @param index   The 1-based index of the placeholder.
+     */
+    abstract void bind(SQLiteProgram program, int index);
+
     @Override
     public abstract String toString();
 
@@ -27,7 +27,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 final class Schema {
@@ -43,62 +42,76 @@ final class Schema {
     private static final String[] headers =
         new String[] {COLUMN_KEY, TYPE_KEY, OF_TYPE_KEY, NAME_KEY};
     private static final String[] selectKeys =
-        new String[] {TABLE_KEY, COLUMN_KEY, TYPE_KEY, OF_TYPE_KEY, NAME_KEY};
+        new String[] {COLUMN_KEY, TYPE_KEY, OF_TYPE_KEY, NAME_KEY};
+    private static final Object loadLock = new Object();
 
     private Schema() {
     }
 
     static void initialize(Sabres sabres) throws SabresException {
         schemas.clear();
-        if (SqliteMaster.tableExists(sabres, SCHEMA_TABLE_NAME)) {
-            Cursor c = null;
-            Set<String> subClassNames = SabresObject.getSubClassNames();
-            if (!subClassNames.isEmpty()) {
-                try {
-                    SelectCommand command = new SelectCommand(SCHEMA_TABLE_NAME,
-                        Arrays.asList(selectKeys));
-                    boolean first = true;
-                    Where where = null;
-
-                    for (String name : subClassNames) {
-                        schemas.put(name, new HashMap<String, SabresDescriptor>());
-                        if (first) {
-                            where = Where.equalTo(TABLE_KEY, new StringValue(name));
-                            first = false;
-                        } else {
-                            where.or(Where.equalTo(TABLE_KEY, new StringValue(name)));
-                        }
-                    }
-                    command.where(where);
-                    c = sabres.select(command.toSql());
-                    for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-                        String table = CursorHelper.getString(c, TABLE_KEY);
-                        String column = CursorHelper.getString(c, COLUMN_KEY);
-                        SabresDescriptor.Type type =
-                            SabresDescriptor.Type.valueOf(CursorHelper.getString(c, TYPE_KEY));
-                        SabresDescriptor.Type ofType = null;
-                        String objectName = null;
-                        if (type.equals(SabresDescriptor.Type.List)) {
-                            ofType = SabresDescriptor.Type.valueOf(CursorHelper.getString(c,
-                                OF_TYPE_KEY));
-                        }
-
-                        if (type.equals(SabresDescriptor.Type.Pointer) ||
-                            (ofType != null && ofType.equals(SabresDescriptor.Type.Pointer))) {
-                            objectName = CursorHelper.getString(c, NAME_KEY);
-                        }
-                        schemas.get(table).put(column, new SabresDescriptor(type, ofType,
-                            objectName));
-                    }
-                } finally {
-                    if (c != null) {
-                        c.close();
-                    }
+        if (!SqliteMaster.tableExists(sabres, SCHEMA_TABLE_NAME)) {
+            create(sabres);
+        }
+    }
+
+    /**
+     * Loads the schema of a single object from the schema table, unless it was already loaded.
+     * Schemas are loaded on first use instead of on initialize, so startup time does not grow
+     * with the number of classes and columns.
+     */
+    static Map<String, SabresDescriptor> load(Sabres sabres, String name)
+        throws SabresException {
+        Map<String, SabresDescriptor> schema = schemas.get(name);
+        if (schema != null) {
+            return schema;
+        }
+
+        synchronized (loadLock) {
+            schema = schemas.get(name);
+            if (schema == null) {
+                final long start = System.nanoTime();
+                schema = select(sabres, name);
+                schemas.put(name, schema);
+                sabres.getMetrics().record(MetricsListener.Operation.SCHEMA_LOAD, null,
+                    System.nanoTime() - start, schema.size());
+            }
+            return schema;
+        }
+    }
+
+    private static Map<String, SabresDescriptor> select(Sabres sabres, String name)
+        throws SabresException {
+        Map<String, SabresDescriptor> schema = new ConcurrentHashMap<>();
+        Cursor c = null;
+        try {
+            SelectCommand command = new SelectCommand(SCHEMA_TABLE_NAME,
+                Arrays.asList(selectKeys)).where(Where.equalTo(TABLE_KEY, new StringValue(name)));
+            c = sabres.select(command.toSql(), command.getArgs());
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                String column = CursorHelper.getString(c, COLUMN_KEY);
+                SabresDescriptor.Type type =
+                    SabresDescriptor.Type.valueOf(CursorHelper.getString(c, TYPE_KEY));
+                SabresDescriptor.Type ofType = null;
+                String objectName = null;
+                if (type.equals(SabresDescriptor.Type.List)) {
+                    ofType = SabresDescriptor.Type.valueOf(CursorHelper.getString(c,
+                        OF_TYPE_KEY));
+                }
+
+                if (type.equals(SabresDescriptor.Type.Pointer) ||
+                    (ofType != null && ofType.equals(SabresDescriptor.Type.Pointer))) {
+                    objectName = CursorHelper.getString(c, NAME_KEY);
                 }
+                schema.put(column, new SabresDescriptor(type, ofType, objectName));
+            }
+        } finally {
+            if (c != null) {
+                c.close();
             }
-        } else {
-            create(sabres);
         }
+
+        return schema;
     }
 
     private static void create(Sabres sabres) throws SabresException {
@@ -115,20 +128,30 @@ final class Schema {
 
         sabres.beginTransaction();
         try {
-            sabres.execSQL(createCommand.toString());
-            sabres.execSQL(indexCommand.toString());
+            SqliteMaster.createTable(sabres, createCommand);
+            SqliteMaster.createIndex(sabres, indexCommand);
             sabres.setTransactionSuccessful();
         } finally {
             sabres.endTransaction();
         }
     }
 
+    /**
+     * @return The schema of the object if it was loaded already, null otherwise.
+     */
     static Map<String, SabresDescriptor> getSchema(String name) {
         return schemas.get(name);
     }
 
-    static SabresDescriptor getDescriptor(String name, String key) {
+    static boolean isLoaded(String name) {
+        return schemas.containsKey(name);
+    }
 
+    /**
+     * @return The descriptor of the key if the schema of the object was loaded already and
+     * contains it, null otherwise.
+     */
+    static SabresDescriptor getDescriptor(String name, String key) {
         if (key.equals(SabresObject.getObjectIdKey())) {
             return new SabresDescriptor(SabresDescriptor.Type.Long);
         }
@@ -141,8 +164,18 @@ final class Schema {
         return null;
     }
 
+    static SabresDescriptor getDescriptor(Sabres sabres, String name, String key)
+        throws SabresException {
+        if (key.equals(SabresObject.getObjectIdKey())) {
+            return new SabresDescriptor(SabresDescriptor.Type.Long);
+        }
+
+        return load(sabres, name).get(key);
+    }
+
     static void update(Sabres sabres, String name, Map<String, SabresDescriptor> schema)
         throws SabresException {
+        Map<String, SabresDescriptor> currentSchema = load(sabres, name);
         sabres.beginTransaction();
         try {
             for (Map.Entry<String, SabresDescriptor> entry : schema.entrySet()) {
@@ -156,14 +189,10 @@ final class Schema {
                 if (entry.getValue().getName() != null) {
                     values.put(NAME_KEY, new StringValue(entry.getValue().getName()));
                 }
-                sabres.insert(new InsertCommand(SCHEMA_TABLE_NAME, values).toSql());
+                InsertCommand command = new InsertCommand(SCHEMA_TABLE_NAME, values);
+                sabres.insert(command.toSql(), command.getArgs());
             }
 
-            Map<String, SabresDescriptor> currentSchema = getSchema(name);
-            if (currentSchema == null) {
-                currentSchema = new HashMap<>(schema.size());
-                schemas.put(name, currentSchema);
-            }
             currentSchema.putAll(schema);
             sabres.setTransactionSuccessful();
         } finally {
@@ -171,17 +200,15 @@ final class Schema {
         }
     }
 
-    static List<String> getKeys(String name) {
+    static List<String> getKeys(Sabres sabres, String name) throws SabresException {
         List<String> keys = new ArrayList<>();
         keys.add(SabresObject.getObjectIdKey());
-        if (schemas.containsKey(name)) {
-            keys.addAll(schemas.get(name).keySet());
-        }
+        keys.addAll(load(sabres, name).keySet());
         return keys;
     }
 
-    static void printSchema(String table) {
-        Map<String, SabresDescriptor> schema = getSchema(table);
+    static void printSchema(Sabres sabres, String table) throws SabresException {
+        Map<String, SabresDescriptor> schema = load(sabres, table);
 
         if (schema == null || schema.isEmpty()) {
             Log.w(TAG, String.format("Schema for object %s does not exist", table));
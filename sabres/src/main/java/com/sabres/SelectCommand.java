@@ -17,10 +17,13 @@
 package com.sabres;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 final class SelectCommand {
     private final String table;
@@ -28,6 +31,7 @@ final class SelectCommand {
     private final List<Join> joins = new ArrayList<>();
     private final List<OrderBy> orderByList = new ArrayList<>();
     private final List<String> groupBy = new ArrayList<>();
+    private final List<String> fullTextJoins = new ArrayList<>();
     private final Map<String, String> alias = new HashMap<>();
     private Integer limit;
     private Integer skip;
@@ -58,6 +62,14 @@ final class SelectCommand {
         return this;
     }
 
+    /**
+     * Joins the full text table on its docid, which is the object id of the row it indexes.
+     */
+    SelectCommand joinFullText(String fullTextTable) {
+        fullTextJoins.add(fullTextTable);
+        return this;
+    }
+
     SelectCommand groupBy(String column) {
         groupBy.add(column);
         return this;
@@ -98,12 +110,42 @@ final class SelectCommand {
         return this;
     }
 
+    Set<String> getTables() {
+        Set<String> tables = new HashSet<>();
+        tables.add(table);
+        for (Join join : joins) {
+            tables.add(join.table);
+        }
+
+        tables.addAll(fullTextJoins);
+
+        if (where != null) {
+            tables.addAll(where.getTables());
+        }
+
+        if (innerSelect != null) {
+            tables.addAll(innerSelect.getTables());
+        }
+
+        return tables;
+    }
+
     @Override
     public String toString() {
         return toSql();
     }
 
     String toSql() {
+        return build(new ArrayList<SabresValue>());
+    }
+
+    SabresValue[] getArgs() {
+        List<SabresValue> args = new ArrayList<>();
+        build(args);
+        return args.toArray(new SabresValue[args.size()]);
+    }
+
+    private String build(List<SabresValue> args) {
         StringBuilder sb = new StringBuilder("SELECT ");
         boolean first = true;
 
@@ -135,17 +177,20 @@ final class SelectCommand {
 
         sb.append(joinSb);
 
-        if (innerSelect != null) {
-            Where where = Where.in(outerKey, String.format("(%s)", innerSelect.toSql()));
-            if (this.where == null) {
-                this.where = where;
-            } else {
-                this.where.and(where);
-            }
+        for (String fullTextTable : fullTextJoins) {
+            sb.append(String.format(" JOIN %s ON %s.docid = %s.objectId", fullTextTable,
+                fullTextTable, table));
         }
 
         if (where != null) {
             sb.append(String.format(" WHERE %s", where.toSql()));
+            args.addAll(where.getArgs());
+        }
+
+        if (innerSelect != null) {
+            sb.append(where == null ? " WHERE " : " AND ");
+            sb.append(String.format("%s IN (%s)", outerKey, innerSelect.toSql()));
+            args.addAll(Arrays.asList(innerSelect.getArgs()));
         }
 
         first = true;
@@ -162,6 +207,7 @@ final class SelectCommand {
 
         if (having != null) {
             sb.append(String.format(" HAVING %s", having.toSql()));
+            args.addAll(having.getArgs());
         }
 
         first = true;
@@ -30,7 +30,12 @@ class SqlFunction {
     }
 
     enum Function {
-        Count("count");
+        Count("count"),
+        Sum("sum"),
+        Total("total"),
+        Avg("avg"),
+        Min("min"),
+        Max("max");
 
         private final String text;
 
@@ -21,7 +21,20 @@ import android.database.Cursor;
 import com.jakewharton.fliptables.FlipTable;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Reads sqlite_master, and keeps an in-memory catalog of the tables and indices in it.
+ * <p>
+ * The catalog is loaded on startup and updated by the DDL that goes through it, so checking
+ * whether a table exists does not hit the database. DDL issued inside a transaction is only
+ * visible to the thread that issued it until the transaction commits, and is dropped if it
+ * rolls back.
+ */
 final class SqliteMaster {
     private static final String TABLE_NAME = "sqlite_master";
     private static final String NAME_KEY = "name";
@@ -29,15 +42,147 @@ final class SqliteMaster {
     private static final String TABLE_NAME_KEY = "tbl_name";
     private static final String ANDROID_METADATA_TABLE = "android_metadata";
     private static final String SCHEMA_TABLE = Schema.getTableName();
+    private static final String INDEX_STATS_TABLE = IndexAdvisor.getTableName();
     private static final String[] selectKeys = new String[] {NAME_KEY, TYPE_KEY, TABLE_NAME_KEY};
     private static final String[] tableHeaders = new String[] {"table", "count"};
     private static final String[] indexHeaders = new String[] {"table", "index"};
+    private static final Set<String> tables =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // index name to table name.
+    private static final Map<String, String> indices = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Changes> changes = new ThreadLocal<>();
+
+    private SqliteMaster() {
+    }
+
+    static void initialize(Sabres sabres) {
+        tables.clear();
+        indices.clear();
+        Cursor c = null;
+        try {
+            SelectCommand command = new SelectCommand(TABLE_NAME, Arrays.asList(selectKeys));
+            c = sabres.select(command.toSql(), command.getArgs());
+            for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+                final String type = CursorHelper.getString(c, TYPE_KEY);
+                if (Type.Table.toString().equals(type)) {
+                    tables.add(CursorHelper.getString(c, NAME_KEY));
+                } else if (Type.Index.toString().equals(type)) {
+                    indices.put(CursorHelper.getString(c, NAME_KEY),
+                        CursorHelper.getString(c, TABLE_NAME_KEY));
+                }
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
 
     static boolean tableExists(Sabres sabres, String table) {
-        CountCommand command = new CountCommand(TABLE_NAME);
-        command.where(Where.equalTo(TYPE_KEY, new StringValue(Type.Table.toString())).
-            and(Where.equalTo(NAME_KEY, new StringValue(table))));
-        return sabres.count(command.toSql()) != 0;
+        Changes pending = changes.get();
+        if (pending != null && pending.tables.containsKey(table)) {
+            return pending.tables.get(table);
+        }
+
+        return tables.contains(table);
+    }
+
+    static boolean indexExists(Sabres sabres, String index) {
+        Changes pending = changes.get();
+        if (pending != null && pending.indices.containsKey(index)) {
+            return pending.indices.get(index) != null;
+        }
+
+        return indices.containsKey(index);
+    }
+
+    /**
+     * @return the committed indices, by name, with the table of each.
+     */
+    static Map<String, String> getIndexTables(Sabres sabres) {
+        return new HashMap<>(indices);
+    }
+
+    /**
+     * Creates the table, unless the catalog already has it.
+     */
+    static void createTable(Sabres sabres, CreateTableCommand command) throws SabresException {
+        if (!tableExists(sabres, command.getName())) {
+            sabres.execSQL(command.toSql());
+            sabres.invalidate(command.getName());
+            getChanges(sabres).tables.put(command.getName(), true);
+            commitIfAutomatic(sabres);
+        }
+    }
+
+    /**
+     * Creates the index, unless the catalog already has it.
+     */
+    static void createIndex(Sabres sabres, CreateIndexCommand command) throws SabresException {
+        if (!indexExists(sabres, command.getIndexName())) {
+            sabres.execSQL(command.toSql());
+            getChanges(sabres).indices.put(command.getIndexName(), command.getTable());
+            commitIfAutomatic(sabres);
+        }
+    }
+
+    static void dropIndex(Sabres sabres, DropIndexCommand command) throws SabresException {
+        sabres.execSQL(command.toSql());
+        getChanges(sabres).indices.put(command.getIndexName(), null);
+        commitIfAutomatic(sabres);
+    }
+
+    /**
+     * Drops the table together with its indices.
+     */
+    static void dropTable(Sabres sabres, DropTableCommand command) throws SabresException {
+        sabres.execSQL(command.toSql());
+        sabres.invalidate(command.getTable());
+        Changes pending = getChanges(sabres);
+        final String table = command.getTable();
+        pending.tables.put(table, false);
+        for (Map.Entry<String, String> entry : indices.entrySet()) {
+            if (entry.getValue().equals(table)) {
+                pending.indices.put(entry.getKey(), null);
+            }
+        }
+        for (Map.Entry<String, String> entry : pending.indices.entrySet()) {
+            if (table.equals(entry.getValue())) {
+                entry.setValue(null);
+            }
+        }
+        commitIfAutomatic(sabres);
+    }
+
+    private static Changes getChanges(final Sabres sabres) {
+        Changes pending = changes.get();
+        if (pending == null) {
+            pending = new Changes();
+            changes.set(pending);
+            if (sabres.inTransaction()) {
+                sabres.addTransactionListener(new Sabres.TransactionListener() {
+                    @Override
+                    public void onEnd(boolean committed) {
+                        Changes ended = changes.get();
+                        changes.remove();
+                        if (committed) {
+                            ended.apply();
+                        }
+                    }
+                });
+            }
+        }
+
+        return pending;
+    }
+
+    // outside of a transaction every statement commits on its own.
+    private static void commitIfAutomatic(Sabres sabres) {
+        if (!sabres.inTransaction()) {
+            Changes pending = changes.get();
+            changes.remove();
+            pending.apply();
+        }
     }
 
     static String getTables(Sabres sabres) {
@@ -47,14 +192,16 @@ final class SqliteMaster {
             command.where(Where.equalTo(TYPE_KEY, new StringValue(Type.Table.toString())).
                 and(Where.notEqualTo(NAME_KEY, new StringValue(ANDROID_METADATA_TABLE)).
                     and(Where.notEqualTo(NAME_KEY, new StringValue(SCHEMA_TABLE)).
-                        and(Where.doesNotStartWith(NAME_KEY, SabresList.getPrefix())))));
-            c = sabres.select(command.toSql());
+                        and(Where.notEqualTo(NAME_KEY, new StringValue(INDEX_STATS_TABLE)).
+                            and(Where.doesNotStartWith(NAME_KEY, SabresList.getPrefix()))))));
+            c = sabres.select(command.toSql(), command.getArgs());
             String[][] data = new String[c.getCount()][tableHeaders.length];
             int i = 0;
             for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
                 final String table = CursorHelper.getString(c, NAME_KEY);
-                data[i++] = new String[] {table,
-                    String.valueOf(sabres.count(new CountCommand(table).toSql()))};
+                CountCommand countCommand = new CountCommand(table);
+                data[i++] = new String[] {table, String.valueOf(sabres.count(countCommand.toSql(),
+                    countCommand.getArgs()))};
             }
 
             return FlipTable.of(tableHeaders, data);
@@ -71,8 +218,9 @@ final class SqliteMaster {
             SelectCommand command = new SelectCommand(TABLE_NAME, Arrays.asList(selectKeys));
             command.where(Where.equalTo(TYPE_KEY, new StringValue(Type.Index.toString())).
                 and(Where.notEqualTo(TABLE_NAME_KEY, new StringValue(SCHEMA_TABLE))).
+                and(Where.notEqualTo(TABLE_NAME_KEY, new StringValue(INDEX_STATS_TABLE))).
                 and(Where.doesNotStartWith(TABLE_NAME_KEY, SabresList.getPrefix())));
-            c = sabres.select(command.toSql());
+            c = sabres.select(command.toSql(), command.getArgs());
             String[][] data = new String[c.getCount()][indexHeaders.length];
             int i = 0;
             for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
@@ -87,6 +235,31 @@ final class SqliteMaster {
         }
     }
 
+    private static final class Changes {
+        // true for created tables, false for dropped ones.
+        private final Map<String, Boolean> tables = new HashMap<>();
+        // index name to table name, or to null for dropped indices.
+        private final Map<String, String> indices = new HashMap<>();
+
+        private void apply() {
+            for (Map.Entry<String, Boolean> entry : tables.entrySet()) {
+                if (entry.getValue()) {
+                    SqliteMaster.tables.add(entry.getKey());
+                } else {
+                    SqliteMaster.tables.remove(entry.getKey());
+                }
+            }
+
+            for (Map.Entry<String, String> entry : indices.entrySet()) {
+                if (entry.getValue() != null) {
+                    SqliteMaster.indices.put(entry.getKey(), entry.getValue());
+                } else {
+                    SqliteMaster.indices.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
     private enum Type {
         Table("table"),
         Index("index");
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of compiled statements, keyed by their sql.
+ * <p>
+ * A SQLiteStatement keeps its bindings in the object itself, so a cached statement is checked out
+ * by {@link #acquire(String)} and handed back by {@link #release(String, SQLiteStatement)}.
+ * Two threads never share a statement, and no lock is held while the statement executes.
+ * <p>
+ * {@link #clear()} starts a new epoch, for a new database. A statement checked out in an earlier
+ * epoch was compiled against the closed database, so it is closed when it is handed back.
+ */
+final class StatementCache {
+    private final int maxSize;
+    private final LinkedHashMap<String, SQLiteStatement> statements;
+    // the epoch each checked out statement was acquired in.
+    private final Map<SQLiteStatement, Long> checkedOut = new IdentityHashMap<>();
+    private long epoch = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+        statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return the cached statement for the sql, or a new one compiled against the database.
+     */
+    SQLiteStatement acquire(String sql, SQLiteDatabase database) {
+        SQLiteStatement statement;
+        long acquired;
+        synchronized (this) {
+            statement = statements.remove(sql);
+            acquired = epoch;
+            if (statement == null) {
+                misses++;
+            } else {
+                hits++;
+                checkedOut.put(statement, acquired);
+            }
+        }
+
+        if (statement != null) {
+            statement.clearBindings();
+            return statement;
+        }
+
+        statement = database.compileStatement(sql);
+        synchronized (this) {
+            checkedOut.put(statement, acquired);
+        }
+
+        return statement;
+    }
+
+    void release(String sql, SQLiteStatement statement) {
+        SQLiteStatement evicted = null;
+        synchronized (this) {
+            Long acquired = checkedOut.remove(statement);
+            if (maxSize > 0 && acquired != null && acquired == epoch &&
+                !statements.containsKey(sql)) {
+                statements.put(sql, statement);
+                statement = null;
+                if (statements.size() > maxSize) {
+                    Iterator<Map.Entry<String, SQLiteStatement>> it =
+                        statements.entrySet().iterator();
+                    evicted = it.next().getValue();
+                    it.remove();
+                    evictions++;
+                }
+            }
+        }
+
+        // the same sql is already cached (or caching is disabled, or the statement belongs to a
+        // closed database), no need to keep this one.
+        if (statement != null) {
+            statement.close();
+        }
+
+        if (evicted != null) {
+            evicted.close();
+        }
+    }
+
+    void clear() {
+        SQLiteStatement[] evicted;
+        synchronized (this) {
+            evicted = statements.values().toArray(new SQLiteStatement[statements.size()]);
+            statements.clear();
+            epoch++;
+        }
+
+        for (SQLiteStatement statement : evicted) {
+            statement.close();
+        }
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    synchronized long getHitCount() {
+        return hits;
+    }
+
+    synchronized long getMissCount() {
+        return misses;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size=%d/%d, hits=%d, misses=%d, evictions=%d", statements.size(),
+            maxSize, hits, misses, evictions);
+    }
+}
@@ -17,6 +17,7 @@
 package com.sabres;
 
 import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteProgram;
 
 final class StringValue extends SabresValue<String> {
 
@@ -29,6 +30,11 @@ final class StringValue extends SabresValue<String> {
         return DatabaseUtils.sqlEscapeString(getValue());
     }
 
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        program.bindString(index, getValue());
+    }
+
     @Override
     public String toString() {
         return getValue();
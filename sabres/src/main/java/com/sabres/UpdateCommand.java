@@ -16,7 +16,10 @@
 
 package com.sabres;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 final class UpdateCommand {
     private final String table;
@@ -25,7 +28,8 @@ final class UpdateCommand {
 
     UpdateCommand(String table, Map<String, SabresValue> objects) {
         this.table = table;
-        this.objects = objects;
+        // sorted, so the same set of keys always renders the same sql.
+        this.objects = new TreeMap<>(objects);
     }
 
     UpdateCommand where(Where where) {
@@ -45,7 +49,7 @@ final class UpdateCommand {
                 sb.append(", ");
             }
 
-            sb.append(String.format("%s = %s", entry.getKey(), entry.getValue().toSql()));
+            sb.append(String.format("%s = ?", entry.getKey()));
         }
 
         if (where != null) {
@@ -55,6 +59,15 @@ final class UpdateCommand {
         return sb.append(";").toString();
     }
 
+    SabresValue[] getArgs() {
+        List<SabresValue> args = new ArrayList<>(objects.values());
+        if (where != null) {
+            args.addAll(where.getArgs());
+        }
+
+        return args.toArray(new SabresValue[args.size()]);
+    }
+
     @Override
     public String toString() {
         return toSql();
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.sabres;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteProgram;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A large set of values for an IN condition.
+ * <p>
+ * Binding every value as its own variable makes the sql grow with the set, and sqlite allows
+ * at most {@link Sabres#MAX_VARIABLES} of them in a statement. Instead, the sql selects the
+ * values of the set, and stays the same for any number of values, so its statement is
+ * compiled once.
+ * <p>
+ * Where sqlite has json_each, the values are bound as a single json array, and the query runs
+ * like any other, on a reader connection. Otherwise the values are loaded into a temp table
+ * right before the query runs. Temp tables belong to a single connection, so that query runs
+ * in a transaction, which holds the write lock and the primary connection until the query is
+ * done, and so waits for writers and for other such queries. Its rows are copied before the
+ * transaction ends. That copy needs Cursor.getType, so before Honeycomb the values are always
+ * bound inline.
+ */
+final class ValueSetValue extends SabresValue<Long> {
+    private static final String TAG = ValueSetValue.class.getSimpleName();
+    static final String TABLE = "temp._sabres_value_sets";
+    static final String CREATE_TABLE_SQL = "CREATE TEMP TABLE IF NOT EXISTS " +
+        "_sabres_value_sets (set_id INTEGER NOT NULL, value, PRIMARY KEY (set_id, value));";
+    static final String INSERT_SQL = String.format("INSERT OR IGNORE INTO %s (set_id, value) " +
+        "VALUES (?, ?);", TABLE);
+    static final String DELETE_SQL = String.format("DELETE FROM %s WHERE set_id = ?;", TABLE);
+    private static final String JSON_EACH_SQL = "SELECT count(*) FROM json_each('[]');";
+    // above this many values a set is not bound inline.
+    private static final int MAX_INLINE_VALUES = 100;
+    private static final AtomicLong nextId = new AtomicLong();
+    private static volatile boolean jsonEach = false;
+    private final List<SabresValue> values;
+    // the values as a json array, or null if they are loaded into the temp table.
+    private final String json;
+
+    ValueSetValue(List<?> objects) {
+        super(nextId.incrementAndGet());
+        if (jsonEach) {
+            values = Collections.emptyList();
+            json = toJson(objects);
+        } else {
+            values = new ArrayList<>(objects.size());
+            for (Object o : objects) {
+                values.add(SabresValue.create(o));
+            }
+            json = null;
+        }
+    }
+
+    /**
+     * Checks whether sqlite has json_each. Sets are created when the query that has them runs,
+     * which waits for startup, so each is created after this.
+     */
+    static void initialize(Sabres sabres) {
+        try {
+            sabres.count(JSON_EACH_SQL, new SabresValue[0]);
+            jsonEach = true;
+        } catch (SQLException e) {
+            Log.i(TAG, "json_each is not available, large value sets use a temp table");
+            jsonEach = false;
+        }
+    }
+
+    static boolean shouldUse(List<?> objects) {
+        return objects.size() > MAX_INLINE_VALUES &&
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * @return the distinct value sets among the bind arguments of a statement that must be
+     * loaded into the temp table before it runs.
+     */
+    static List<ValueSetValue> find(SabresValue[] args) {
+        Map<ValueSetValue, Boolean> sets = null;
+        for (SabresValue arg : args) {
+            if (arg instanceof ValueSetValue && ((ValueSetValue)arg).json == null) {
+                if (sets == null) {
+                    sets = new IdentityHashMap<>();
+                }
+
+                sets.put((ValueSetValue)arg, Boolean.TRUE);
+            }
+        }
+
+        return sets == null ? Collections.<ValueSetValue>emptyList() :
+            new ArrayList<>(sets.keySet());
+    }
+
+    /**
+     * @return a select of the values, with a placeholder for this value.
+     */
+    String getSelect() {
+        return json == null ? String.format("SELECT value FROM %s WHERE set_id = ?", TABLE) :
+            "SELECT value FROM json_each(?)";
+    }
+
+    List<SabresValue> getValues() {
+        return values;
+    }
+
+    @Override
+    String toSql() {
+        return json == null ? String.valueOf(getValue()) : new StringValue(json).toSql();
+    }
+
+    @Override
+    void bind(SQLiteProgram program, int index) {
+        if (json == null) {
+            program.bindLong(index, getValue());
+        } else {
+            program.bindString(index, json);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return json == null ? String.valueOf(getValue()) : json;
+    }
+
+    @Override
+    SabresDescriptor getDescriptor() {
+        return new SabresDescriptor(json == null ? SabresDescriptor.Type.Long :
+            SabresDescriptor.Type.String);
+    }
+
+    // each value as it is stored, so json_each returns what binding it inline would compare.
+    private static String toJson(List<?> objects) {
+        StringBuilder sb = new StringBuilder("[");
+        boolean first = true;
+        for (Object o : objects) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(',');
+            }
+
+            appendJson(sb, o);
+        }
+
+        return sb.append(']').toString();
+    }
+
+    private static void appendJson(StringBuilder sb, Object o) {
+        if (o == null) {
+            sb.append("null");
+        } else if (o instanceof Float || o instanceof Double) {
+            final double d = ((Number)o).doubleValue();
+            if (Double.isNaN(d)) {
+                // sqlite stores NaN as null.
+                sb.append("null");
+            } else if (Double.isInfinite(d)) {
+                // overflows to infinity when parsed.
+                sb.append(d > 0 ? "1e999" : "-1e999");
+            } else {
+                sb.append(d);
+            }
+        } else if (o instanceof Number) {
+            sb.append(((Number)o).longValue());
+        } else if (o instanceof Boolean) {
+            sb.append((Boolean)o ? 1 : 0);
+        } else if (o instanceof Date) {
+            sb.append(((Date)o).getTime());
+        } else if (o instanceof SabresObject) {
+            sb.append(((SabresObject)o).getObjectId());
+        } else if (o instanceof String) {
+            appendJsonString(sb, (String)o);
+        } else {
+            throw new IllegalArgumentException("Cannot create SabresValue out of class " +
+                o.getClass().getSimpleName());
+        }
+    }
+
+    private static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
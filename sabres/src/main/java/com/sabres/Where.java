@@ -16,13 +16,28 @@
 
 package com.sabres;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * A sql condition. Values are never inlined into the sql, every value is rendered as a '?'
+ * placeholder and kept, in order, in the bind arguments of the condition.
+ */
 final class Where {
+    private static final String PLACEHOLDER = "?";
+    private static final char LIKE_ESCAPE = '\\';
+    private final List<SabresValue> args = new ArrayList<>();
+    // the tables read by subselects of the condition, other than the table it is on.
+    private final Set<String> tables = new HashSet<>();
     private StringBuilder where;
 
-    private Where(String key, String value, Operator operator) {
-        where = new StringBuilder(key).append(operator.toString()).append(value);
+    private Where(String key, SabresValue value, Operator operator) {
+        where = new StringBuilder(key).append(operator.toString()).append(PLACEHOLDER);
+        args.add(value);
     }
 
     private Where(String key, List<?> objects, Operator operator) {
@@ -34,81 +49,275 @@ final class Where {
             } else {
                 where.append(", ");
             }
-            where.append(SabresValue.create(o).toSql());
+            where.append(PLACEHOLDER);
+            args.add(SabresValue.create(o));
         }
 
         where.append(")");
     }
 
-    public static Where in(String key, List<?> objects) {
-        return new Where(key, objects, Operator.In);
+    private Where(String sql, SabresValue value) {
+        where = new StringBuilder(sql);
+        args.add(value);
+    }
+
+    private Where(String sql) {
+        where = new StringBuilder(sql);
     }
 
-    public static Where in(String key, String statement) {
-        return new Where(key, statement, Operator.In);
+    private Where(Where other) {
+        where = new StringBuilder(other.where);
+        args.addAll(other.args);
+        tables.addAll(other.tables);
+    }
+
+    public static Where in(String key, List<?> objects) {
+        return new Where(key, objects, Operator.In);
     }
 
     public static Where notIn(String key, List<?> objects) {
         return new Where(key, objects, Operator.NotIn);
     }
 
+    /**
+     * The key is one of the values of the set, which are selected instead of bound one by one.
+     */
+    public static Where in(String key, ValueSetValue set) {
+        return new Where(String.format("%s%s(%s)", key, Operator.In, set.getSelect()), set);
+    }
+
+    public static Where notIn(String key, ValueSetValue set) {
+        return new Where(String.format("%s%s(%s)", key, Operator.NotIn, set.getSelect()), set);
+    }
+
+    /**
+     * The key is one of the values of the column in the rows of the table that satisfy any of
+     * the conditions. Each condition is its own select, which can search its own index, where
+     * sqlite often scans the whole table for an or of conditions on different columns.
+     */
+    public static Where inUnion(String key, String table, String column, List<Where> wheres) {
+        Where union = new Where(String.format("%s%s(", key, Operator.In));
+        boolean first = true;
+        for (Where where : wheres) {
+            if (first) {
+                first = false;
+            } else {
+                // duplicates are dropped by IN anyway, so the union does not need to.
+                union.where.append(" UNION ALL ");
+            }
+
+            union.where.append(String.format("SELECT %s FROM %s WHERE %s", column, table,
+                where.toSql()));
+            union.args.addAll(where.args);
+            union.tables.addAll(where.tables);
+        }
+
+        union.where.append(")");
+        return union;
+    }
+
+    /**
+     * The key is one of the values selected by the subselect.
+     */
+    public static Where in(String key, SelectCommand select) {
+        return subselect(key, Operator.In, select);
+    }
+
+    public static Where notIn(String key, SelectCommand select) {
+        return subselect(key, Operator.NotIn, select);
+    }
+
+    /**
+     * A condition that is the same for every row.
+     */
+    public static Where constant(boolean value) {
+        return new Where(value ? "1" : "0");
+    }
+
+    private static Where subselect(String key, Operator operator, SelectCommand select) {
+        Where where = new Where(String.format("%s%s(%s)", key, operator, select.toSql()));
+        where.args.addAll(Arrays.asList(select.getArgs()));
+        where.tables.addAll(select.getTables());
+        return where;
+    }
+
     public static Where equalTo(String key, SabresValue value) {
-        return new Where(key, value.toSql(), Operator.Equal);
+        return new Where(key, value, Operator.Equal);
+    }
+
+    /**
+     * A range on the key instead of LIKE 'prefix%', so an index on the key can be used.
+     * <p>
+     * LIKE ignores the case of ASCII letters, which keeps sqlite from using an index for it.
+     * The case insensitive range compares with the NOCASE collation, which ignores the case of
+     * ASCII letters as well, and can use an index on the key that has the same collation.
+     */
+    public static Where startsWith(String key, String prefix, boolean caseSensitive) {
+        if (prefix.isEmpty()) {
+            // LIKE '%' matches every value that is not null, numbers included.
+            return isNot(key, new NullValue(null));
+        }
+
+        if (!caseSensitive) {
+            // NOCASE compares the lower case of ASCII letters, so the bounds are lower case.
+            key = getNoCaseKey(key);
+            prefix = toLowerCaseAscii(prefix);
+        }
+
+        Where where = new Where(key, new StringValue(prefix), Operator.GreaterThanOrEqual);
+        String upperBound = getUpperBound(prefix, caseSensitive);
+        if (upperBound != null) {
+            where.and(new Where(key, new StringValue(upperBound), Operator.LessThan));
+        }
+
+        return where;
     }
 
-    public static Where startsWith(String key, String prefix) {
-        return new Where(key, String.format("'%s%%'", prefix), Operator.Like);
+    /**
+     * The text of the value starts with the prefix, for a key whose values are not stored as
+     * text. The prefix is escaped, so it matches as it is. Ignores the case of ASCII letters,
+     * and cannot use an index.
+     */
+    public static Where startsWithLike(String key, String prefix) {
+        StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == LIKE_ESCAPE || c == '%' || c == '_') {
+                pattern.append(LIKE_ESCAPE);
+            }
+            pattern.append(c);
+        }
+
+        return new Where(String.format("%s%s%s ESCAPE '%c'", key, Operator.Like, PLACEHOLDER,
+            LIKE_ESCAPE), new StringValue(pattern.append('%').toString()));
+    }
+
+    static String getNoCaseKey(String key) {
+        return String.format("%s COLLATE NOCASE", key);
     }
 
     public static Where endsWith(String key, String suffix) {
-        return new Where(key, String.format("'%%%s'", suffix), Operator.Like);
+        return new Where(key, new StringValue(String.format("%%%s", suffix)), Operator.Like);
     }
 
     public static Where contains(String key, String substring) {
-        return new Where(key, String.format("'%%%s%%'", substring), Operator.Like);
+        return new Where(key, new StringValue(String.format("%%%s%%", substring)), Operator.Like);
     }
 
     public static Where doesNotStartWith(String key, String prefix) {
-        return new Where(key, String.format("'%s%%'", prefix), Operator.NotLike);
+        return new Where(key, new StringValue(String.format("%s%%", prefix)), Operator.NotLike);
     }
 
     public static Where notEqualTo(String key, SabresValue value) {
-        return new Where(key, value.toSql(), Operator.NotEqual);
+        return new Where(key, value, Operator.NotEqual);
     }
 
     public static Where greaterThan(String key, SabresValue value) {
-        return new Where(key, value.toSql(), Operator.GreaterThan);
+        return new Where(key, value, Operator.GreaterThan);
     }
 
     public static Where greaterThanOrEqual(String key, SabresValue value) {
-        return new Where(key, value.toSql(), Operator.GreaterThanOrEqual);
+        return new Where(key, value, Operator.GreaterThanOrEqual);
     }
 
     public static Where lessThan(String key, SabresValue value) {
-        return new Where(key, value.toSql(), Operator.LessThan);
+        return new Where(key, value, Operator.LessThan);
     }
 
     public static Where lessThanOrEqual(String key, SabresValue value) {
-        return new Where(key, value.toSql(), Operator.LessThanOrEqual);
+        return new Where(key, value, Operator.LessThanOrEqual);
+    }
+
+    /**
+     * The key is one of the docids of the rows of the full text table that match the query.
+     */
+    public static Where matches(String key, String table, String query) {
+        return new Where(String.format("%s IN (SELECT docid FROM %s WHERE %s%s%s)", key, table,
+            table, Operator.Match, PLACEHOLDER), new StringValue(query));
+    }
+
+    /**
+     * The rows of a joined full text table that match the query.
+     */
+    public static Where matches(String table, String query) {
+        return new Where(table, new StringValue(query), Operator.Match);
     }
 
     public static Where is(String key, SabresValue value) {
-        return new Where(key, value.toSql(), Operator.Is);
+        return new Where(key, value, Operator.Is);
     }
 
     public static Where isNot(String key, SabresValue value) {
-        return new Where(key, value.toSql(), Operator.IsNot);
+        return new Where(key, value, Operator.IsNot);
+    }
+
+    private static String toLowerCaseAscii(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            sb.append(c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @return the smallest string that is greater than every string starting with the prefix,
+     * or null if there is none. Text compares by code point, the order of its UTF-8 bytes.
+     * NOCASE compares upper case ASCII letters as lower case, so a case insensitive bound
+     * skips them. The bound after '@' is '[', an 'A' would compare as 'a' and let '[' to '`'
+     * through.
+     */
+    private static String getUpperBound(String prefix, boolean caseSensitive) {
+        int end = prefix.length();
+        while (end > 0) {
+            int codePoint = prefix.codePointBefore(end);
+            end -= Character.charCount(codePoint);
+            int next = codePoint + 1;
+            if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+                next = Character.MAX_SURROGATE + 1;
+            } else if (!caseSensitive && next >= 'A' && next <= 'Z') {
+                next = 'Z' + 1;
+            }
+
+            if (next <= Character.MAX_CODE_POINT) {
+                return new StringBuilder(prefix.substring(0, end)).appendCodePoint(next).
+                    toString();
+            }
+        }
+
+        return null;
     }
 
     public Where and(Where andWhere) {
         where = new StringBuilder(String.format("( %s AND %s )", where.toString(),
-            andWhere.toString()));
+            andWhere.toSql()));
+        args.addAll(andWhere.args);
+        tables.addAll(andWhere.tables);
         return this;
     }
 
     public Where or(Where orWhere) {
         where = new StringBuilder(String.format("( %s OR %s )", where.toString(),
-            orWhere.toString()));
+            orWhere.toSql()));
+        args.addAll(orWhere.args);
+        tables.addAll(orWhere.tables);
+        return this;
+    }
+
+    /**
+     * and and or modify the condition they are called on. A copy can be combined without
+     * changing the original.
+     */
+    Where copy() {
+        return new Where(this);
+    }
+
+    /**
+     * Adds a table that the result of the condition depends on.
+     */
+    Where withTable(String table) {
+        tables.add(table);
         return this;
     }
 
@@ -116,9 +325,17 @@ final class Where {
         return where.toString();
     }
 
+    List<SabresValue> getArgs() {
+        return Collections.unmodifiableList(args);
+    }
+
+    Set<String> getTables() {
+        return Collections.unmodifiableSet(tables);
+    }
+
     @Override
     public String toString() {
-        return toSql();
+        return String.format("%s %s", toSql(), args.toString());
     }
 
     private enum Operator {
@@ -132,6 +349,7 @@ final class Where {
         NotLike(" NOT LIKE "),
         Is(" IS "),
         IsNot(" IS NOT "),
+        Match(" MATCH "),
         In(" IN "),
         NotIn(" NOT IN ");
 
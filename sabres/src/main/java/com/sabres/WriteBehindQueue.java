@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Tamir Shomer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sabres;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+import bolts.TaskCompletionSource;
+
+/**
+ * Coalesces saves issued within a time window into a single transaction on the writer lane.
+ * Each caller gets a Task that completes when the group commit lands.
+ * <p>
+ * The group is written like any other background write, once the database is ready. If it
+ * failed to start, every pending save fails with its error.
+ */
+final class WriteBehindQueue {
+    private final ScheduledExecutorService executor;
+    private final long windowMillis;
+    private final int maxObjects;
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushWhenReady();
+        }
+    };
+    private List<Pending> pending = new ArrayList<>();
+    // the window timer is running.
+    private boolean scheduled = false;
+    // a flush was handed to the writer lane and has not run yet.
+    private boolean flushQueued = false;
+
+    WriteBehindQueue(ScheduledExecutorService executor, long windowMillis, int maxObjects) {
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+        this.maxObjects = maxObjects;
+    }
+
+    Task<Void> save(SabresObject object) {
+        TaskCompletionSource<Void> tcs = new TaskCompletionSource<>();
+        synchronized (this) {
+            pending.add(new Pending(object, tcs));
+            if (pending.size() >= maxObjects) {
+                if (!flushQueued) {
+                    flushQueued = true;
+                    executor.execute(flush);
+                }
+            } else if (!scheduled) {
+                scheduled = true;
+                executor.schedule(flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return tcs.getTask();
+    }
+
+    private void flushWhenReady() {
+        Sabres.callInWriter(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                flush();
+                return null;
+            }
+        }).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                // flush fails the saves itself, only a failed startup gets here.
+                if (task.isFaulted()) {
+                    fail(takeBatch(), task.getError());
+                }
+                return null;
+            }
+        });
+    }
+
+    private synchronized List<Pending> takeBatch() {
+        List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        scheduled = false;
+        flushQueued = false;
+        return batch;
+    }
+
+    private static void fail(List<Pending> batch, Exception e) {
+        for (Pending p : batch) {
+            p.tcs.setError(e);
+        }
+    }
+
+    private void flush() {
+        List<Pending> batch = takeBatch();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // the same object may have been saved more than once within the window.
+        Map<SabresObject, Boolean> unique = new IdentityHashMap<>(batch.size());
+        List<SabresObject> objects = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            if (unique.put(p.object, Boolean.TRUE) == null) {
+                objects.add(p.object);
+            }
+        }
+
+        try {
+            SabresObject.saveAll(objects);
+        } catch (Exception e) {
+            // the group shares one transaction, so it fails as a whole.
+            fail(batch, e);
+            return;
+        }
+
+        for (Pending p : batch) {
+            p.tcs.setResult(null);
+        }
+    }
+
+    private static final class Pending {
+        private final SabresObject object;
+        private final TaskCompletionSource<Void> tcs;
+
+        Pending(SabresObject object, TaskCompletionSource<Void> tcs) {
+            this.object = object;
+            this.tcs = tcs;
+        }
+    }
+}